@@ -8,6 +8,8 @@ package model;
 public class Command {
     public CommandType type = CommandType.cancel;
     public int elementIdx;
+    // pager taps collapsed into this one
+    public int steps = 1;
     public TFile file;
     public String input;
 }
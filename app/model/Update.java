@@ -0,0 +1,81 @@
+package model;
+
+/**
+ * Telegram update, only what the bot reads from it.
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+public final class Update {
+    public final long id;
+
+    // sender
+    public final long userId;
+    public final String firstName, lastName, username, lang;
+
+    // incoming message, 0 for callbacks
+    public final long messageId;
+    public final String text, caption;
+    public final Attachment attachment;
+
+    // callback query, null for messages
+    public final String callbackId, callbackData;
+
+    public Update(final long id, final long userId, final String firstName, final String lastName, final String username, final String lang, final long messageId,
+                  final String text, final String caption, final Attachment attachment, final String callbackId, final String callbackData) {
+        this.id = id;
+        this.userId = userId;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.username = username;
+        this.lang = lang;
+        this.messageId = messageId;
+        this.text = text;
+        this.caption = caption;
+        this.attachment = attachment;
+        this.callbackId = callbackId;
+        this.callbackData = callbackData;
+    }
+
+    public boolean isCallback() {
+        return callbackId != null;
+    }
+
+    public boolean isMessage() {
+        return messageId > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + id + " from " + userId + (isCallback() ? " callback '" + callbackData + "'" : isMessage() ? " message " + messageId
+                + (text != null ? " '" + text + "'" : attachment != null ? " " + attachment.type : "") : "");
+    }
+
+    public static final class Attachment {
+        public final ContentType type;
+        public final String fileId, uniqueId, fileName;
+
+        // contacts only
+        public final long contactUserId;
+        public final String contactFirstName, contactLastName, contactUsername, phone, contactJson;
+
+        public Attachment(final ContentType type, final String fileId, final String uniqueId, final String fileName) {
+            this(type, fileId, uniqueId, fileName, 0, null, null, null, null, null);
+        }
+
+        public Attachment(final ContentType type, final String fileId, final String uniqueId, final String fileName, final long contactUserId, final String contactFirstName,
+                          final String contactLastName, final String contactUsername, final String phone, final String contactJson) {
+            this.type = type;
+            this.fileId = fileId;
+            this.uniqueId = uniqueId;
+            this.fileName = fileName;
+            this.contactUserId = contactUserId;
+            this.contactFirstName = contactFirstName;
+            this.contactLastName = contactLastName;
+            this.contactUsername = contactUsername;
+            this.phone = phone;
+            this.contactJson = contactJson;
+        }
+    }
+}
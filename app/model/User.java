@@ -9,6 +9,7 @@ import model.user.Role;
 import utils.LangMap;
 
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author Denis Danilin | denis@danilin.name
@@ -18,21 +19,27 @@ import java.util.UUID;
 public final class User {
     public final long id;
     public final UUID rootId;
-    public final String lang;
-    public final String name;
-    public String lastRefId, lastText, lastKeyboard;
+    // refreshed from each update of the user
+    public String lang, name;
+    // fingerprints of what the last message shows, 0 for nothing; also set from telegram's replies
+    public volatile long lastRefFp, lastTextFp, lastKbdFp;
 
-    public long lastMessageId;
+    public volatile long lastMessageId;
+
+    // what the database has, to skip writes of an unchanged state
+    private long savedRefFp, savedTextFp, savedKbdFp, savedDataFp;
 
     private Role role;
+    // telegram's replies to what the current update sent, not applied yet; touched from the user's mailbox only
+    private CompletableFuture<?> replies = null;
 
     public User(final long id,
                 final UUID rootId,
                 final String lang,
                 final String name,
-                final String lastRefId,
-                final String lastText,
-                final String lastKeyboard,
+                final long lastRefFp,
+                final long lastTextFp,
+                final long lastKbdFp,
                 final long lastMessageId,
                 final Role role) {
         this.id = id;
@@ -40,13 +47,46 @@ public final class User {
         this.rootId = rootId;
         this.lang = lang;
         this.name = name;
-        this.lastRefId = lastRefId;
-        this.lastText = lastText;
-        this.lastKeyboard = lastKeyboard;
+        this.lastRefFp = lastRefFp;
+        this.lastTextFp = lastTextFp;
+        this.lastKbdFp = lastKbdFp;
         this.lastMessageId = lastMessageId;
         setRole(role);
     }
 
+    /**
+     * Remembers the current state, with the given fingerprint of its data, as saved.
+     *
+     * @return false if it is the same as the last saved one
+     */
+    public boolean markSaved(final long dataFp) {
+        if (dataFp == savedDataFp && lastRefFp == savedRefFp && lastTextFp == savedTextFp && lastKbdFp == savedKbdFp)
+            return false;
+
+        savedDataFp = dataFp;
+        savedRefFp = lastRefFp;
+        savedTextFp = lastTextFp;
+        savedKbdFp = lastKbdFp;
+        return true;
+    }
+
+    /**
+     * Holds the user's next update until the reply is applied.
+     */
+    public void awaitReply(final CompletableFuture<?> reply) {
+        replies = replies == null ? reply : CompletableFuture.allOf(replies, reply);
+    }
+
+    /**
+     * @return completed once all replies awaited since the last call are applied
+     */
+    public CompletableFuture<?> takeReplies() {
+        final CompletableFuture<?> r = replies;
+        replies = null;
+
+        return r == null ? CompletableFuture.completedFuture(null) : r;
+    }
+
     public void setRole(final Role role) {
         this.role = role;
         ((ARole) this.role).user = this;
@@ -29,7 +29,7 @@ public abstract class APager<T> extends ARole implements CallbackSink {
         switch (command.type) {
             case rewind:
             case forward:
-                offset += command.type == CommandType.rewind ? -10 : 10;
+                offset = Math.max(0, offset + (command.type == CommandType.rewind ? -10 : 10) * Math.max(1, command.steps));
                 doView();
                 return false;
             default:
@@ -58,6 +58,9 @@ public abstract class APager<T> extends ARole implements CallbackSink {
         final int count = prepareCountScope();
         final TgApi.Keyboard kbd = initKeyboard();
 
+        if (offset >= count && offset > 0) // collapsed taps may run past the last page
+            offset = Math.max(0, (count - 1) / 10 * 10);
+
         final List<T> scope = selectScope(offset, 10);
 
         for (int i = 0; i < scope.size(); i++)
@@ -90,8 +90,8 @@ public class DirViewer extends APager<TFile> {
         prepareCountScope();
 
         if (dir == null) {
-            if (Objects.equals(entryId, user.rootId))
-                tfs.reinitUserTables(user.id);
+            if (Objects.equals(entryId, user.rootId) && tfs.reinitUserTables(user.id) != null)
+                us.evict(user.id); // resolved with the new root on the next update
 
             us.reset(user);
             user.doView();
@@ -3,6 +3,7 @@ package modules;
 import com.google.inject.name.Names;
 import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
 import play.db.Database;
+import services.DbGate;
 import sql.TFileSystem;
 import utils.UUIDTypeHandler;
 
@@ -35,16 +36,16 @@ public class BatisModule extends org.mybatis.guice.MyBatisModule {
 
     @Singleton
     public static class PlayDataSourceProvider implements Provider<DataSource> {
-        final Database db;
+        final DataSource ds;
 
         @Inject
-        public PlayDataSourceProvider(final Database db) {
-            this.db = db;
+        public PlayDataSourceProvider(final Database db, final DbGate gate) {
+            this.ds = gate.wrap(db.getDataSource());
         }
 
         @Override
         public DataSource get() {
-            return db.getDataSource();
+            return ds;
         }
     }
 
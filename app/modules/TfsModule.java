@@ -0,0 +1,18 @@
+package modules;
+
+import com.google.inject.AbstractModule;
+import services.EntriesMigrator;
+import services.UpdatePoller;
+
+/**
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+public class TfsModule extends AbstractModule {
+    @Override
+    protected void configure() {
+        bind(UpdatePoller.class).asEagerSingleton();
+        bind(EntriesMigrator.class).asEagerSingleton();
+    }
+}
@@ -0,0 +1,90 @@
+package services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.typesafe.config.Config;
+import play.libs.Json;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load shedding for the intake: an update is refused, so telegram redelivers it later, while the bot already has too
+ * many accepted but unfinished updates or too many threads waiting for a db connection. Callbacks have their own,
+ * higher, limits: they are cheap and the user waits for their answer.
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+@Singleton
+public class Admission {
+    private final MailboxService mailbox;
+    private final DbGate db;
+
+    private final boolean enabled;
+    private final int maxInflight, maxDbWaiting, callbackInflight, callbackDbWaiting;
+
+    private final LongAdder admitted = new LongAdder(), shedInflight = new LongAdder(), shedDb = new LongAdder();
+
+    @Inject
+    public Admission(final Config config, final MailboxService mailbox, final DbGate db) {
+        this.mailbox = mailbox;
+        this.db = db;
+
+        enabled = config.getBoolean("service.admission.enabled");
+        maxInflight = config.getInt("service.admission.inflight");
+        maxDbWaiting = config.getInt("service.admission.db_waiting");
+        callbackInflight = Math.max(maxInflight, config.getInt("service.admission.callback.inflight"));
+        callbackDbWaiting = Math.max(maxDbWaiting, config.getInt("service.admission.callback.db_waiting"));
+    }
+
+    /**
+     * Cheap check before the payload is even decoded: refuses only what no update, whatever its kind, would pass.
+     */
+    public boolean open() {
+        return !enabled || mailbox.queued() < callbackInflight && db.waiting() < callbackDbWaiting;
+    }
+
+    /**
+     * @return false if the update has to be refused now
+     */
+    public boolean admit(final boolean callback) {
+        if (!enabled)
+            return true;
+
+        if (mailbox.queued() >= (callback ? callbackInflight : maxInflight)) {
+            shedInflight.increment();
+            return false;
+        }
+
+        if (db.waiting() >= (callback ? callbackDbWaiting : maxDbWaiting)) {
+            shedDb.increment();
+            return false;
+        }
+
+        admitted.increment();
+        return true;
+    }
+
+    public JsonNode stats() {
+        final ObjectNode node = Json.newObject();
+
+        node.put("enabled", enabled);
+        node.put("inflight", mailbox.queued());
+        node.put("dbWaiting", db.waiting());
+
+        final ObjectNode limits = node.putObject("limits");
+        limits.put("inflight", maxInflight);
+        limits.put("dbWaiting", maxDbWaiting);
+        limits.put("callbackInflight", callbackInflight);
+        limits.put("callbackDbWaiting", callbackDbWaiting);
+
+        node.put("admitted", admitted.sum());
+        node.put("shedInflight", shedInflight.sum());
+        node.put("shedDb", shedDb.sum());
+
+        return node;
+    }
+}
@@ -0,0 +1,175 @@
+package services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.typesafe.config.Config;
+import play.libs.Json;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded gate in front of the jdbc pool: a connection is taken only with a permit and the permit is given back when
+ * the connection is closed. Keeps the number of threads parked on the pool itself (and hence on its own timeouts) small,
+ * however many handler threads there are.
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+@Singleton
+public class DbGate {
+    private final Semaphore permits;
+    private final int size;
+    private final long timeoutMs;
+
+    private final AtomicInteger waiting = new AtomicInteger(0);
+    private final LongAdder acquired = new LongAdder(), timeouts = new LongAdder();
+
+    @Inject
+    public DbGate(final Config config) {
+        size = config.getInt("service.db.permits");
+        timeoutMs = config.getDuration("service.db.acquire_timeout", TimeUnit.MILLISECONDS);
+        permits = new Semaphore(size, true);
+    }
+
+    public DataSource wrap(final DataSource ds) {
+        return new GatedDataSource(ds);
+    }
+
+    public int permits() {
+        return size;
+    }
+
+    public int inUse() {
+        return size - permits.availablePermits();
+    }
+
+    public int waiting() {
+        return waiting.get();
+    }
+
+    public JsonNode stats() {
+        final ObjectNode node = Json.newObject();
+
+        node.put("permits", size);
+        node.put("inUse", inUse());
+        node.put("waiting", waiting());
+        node.put("acquired", acquired.sum());
+        node.put("timeouts", timeouts.sum());
+
+        return node;
+    }
+
+    private void acquire() throws SQLException {
+        waiting.incrementAndGet();
+
+        try {
+            if (!permits.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                throw new SQLException("No db permit within " + timeoutMs + "ms, " + waiting.get() + " waiting");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a db permit", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+
+        acquired.increment();
+    }
+
+    private Connection gated(final Connection connection) {
+        final AtomicBoolean released = new AtomicBoolean(false);
+
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+            try {
+                return method.invoke(connection, args);
+            } catch (final InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                if (method.getName().equals("close") && released.compareAndSet(false, true))
+                    permits.release();
+            }
+        });
+    }
+
+    private final class GatedDataSource implements DataSource {
+        private final DataSource ds;
+
+        private GatedDataSource(final DataSource ds) {
+            this.ds = ds;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            acquire();
+
+            try {
+                return gated(ds.getConnection());
+            } catch (final SQLException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public Connection getConnection(final String username, final String password) throws SQLException {
+            acquire();
+
+            try {
+                return gated(ds.getConnection(username, password));
+            } catch (final SQLException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public <T> T unwrap(final Class<T> iface) throws SQLException {
+            return ds.unwrap(iface);
+        }
+
+        @Override
+        public boolean isWrapperFor(final Class<?> iface) throws SQLException {
+            return ds.isWrapperFor(iface);
+        }
+
+        @Override
+        public PrintWriter getLogWriter() throws SQLException {
+            return ds.getLogWriter();
+        }
+
+        @Override
+        public void setLogWriter(final PrintWriter out) throws SQLException {
+            ds.setLogWriter(out);
+        }
+
+        @Override
+        public void setLoginTimeout(final int seconds) throws SQLException {
+            ds.setLoginTimeout(seconds);
+        }
+
+        @Override
+        public int getLoginTimeout() throws SQLException {
+            return ds.getLoginTimeout();
+        }
+
+        @Override
+        public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            return ds.getParentLogger();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.typesafe.config.Config;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+import sql.TFileSystem;
+import utils.NamedThreadFactory;
+
+import javax.inject.Provider;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In the shared mode, moves users still in their own tables to the entries table in background, a batch of users per
+ * round, each user in its own transaction. The progress is the users' flag, so a restart resumes where it stopped; users
+ * active meanwhile are moved on their own by the first touch of their entries.
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+@Singleton
+public class EntriesMigrator {
+    private static final Logger.ALogger logger = Logger.of(EntriesMigrator.class);
+
+    private final TFileSystem fs;
+    private final Provider<TfsService> tfs;
+    private final boolean enabled;
+    private final int batch;
+
+    private volatile int remaining = -1;
+    // users are taken in id order, failed ones are left behind until the next pass
+    private long after = 0;
+    private final LongAdder moved = new LongAdder(), rounds = new LongAdder(), failed = new LongAdder();
+
+    @Inject
+    public EntriesMigrator(final Config config, final TFileSystem fs, final Provider<TfsService> tfs, final ApplicationLifecycle lifecycle) {
+        this.fs = fs;
+        this.tfs = tfs;
+        enabled = "shared".equals(config.getString("service.storage.mode"));
+        batch = config.getInt("service.storage.migrate.batch");
+
+        if (!enabled)
+            return;
+
+        final long pause = config.getDuration("service.storage.migrate.pause", TimeUnit.MILLISECONDS);
+        final ScheduledExecutorService migrator = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("entries-migrator"));
+        migrator.scheduleWithFixedDelay(this::round, pause, pause, TimeUnit.MILLISECONDS);
+
+        lifecycle.addStopHook(() -> {
+            migrator.shutdownNow();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    public JsonNode stats() {
+        final ObjectNode node = Json.newObject();
+
+        node.put("enabled", enabled);
+        node.put("remaining", remaining);
+        node.put("moved", moved.sum());
+        node.put("rounds", rounds.sum());
+        node.put("failed", failed.sum());
+
+        return node;
+    }
+
+    private void round() {
+        if (remaining == 0)
+            return;
+
+        try {
+            final List<Long> ids = fs.selectTablesUsers(after, batch);
+            after = ids.isEmpty() ? 0 : ids.get(ids.size() - 1);
+
+            for (final Long id : ids) {
+                if (Thread.currentThread().isInterrupted())
+                    return;
+
+                try {
+                    if (tfs.get().moveToEntries(id))
+                        moved.increment();
+                } catch (final Exception e) {
+                    // stays flagged, picked up again next round
+                    failed.increment();
+                    logger.error("Moving user #" + id + " to entries: " + e.getMessage(), e);
+                }
+            }
+
+            rounds.increment();
+            remaining = fs.countTablesUsers();
+
+            if (remaining == 0)
+                logger.info("All users are in the entries table, their old fs_ tables and views may be dropped");
+        } catch (final Exception e) {
+            failed.increment();
+            logger.error("Moving users to entries: " + e.getMessage(), e);
+        }
+    }
+}
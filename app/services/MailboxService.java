@@ -0,0 +1,156 @@
+package services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.typesafe.config.Config;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+import utils.NamedThreadFactory;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Per-user ordered executor: updates of the same telegram user are run strictly one by one in arrival order,
+ * different users are run in parallel. A task is asynchronous: the next task of the user starts only after the stage
+ * returned by the previous one is completed, whatever pipeline executors it went through.
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+@Singleton
+public class MailboxService {
+    private static final Logger.ALogger logger = Logger.of(MailboxService.class);
+
+    private final ConcurrentHashMap<Long, Mailbox> boxes = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+    private final int capacity;
+
+    private final AtomicInteger queued = new AtomicInteger(0), peak = new AtomicInteger(0);
+    private final LongAdder accepted = new LongAdder(), rejected = new LongAdder(), failed = new LongAdder();
+
+    @Inject
+    public MailboxService(final Config config, final ApplicationLifecycle lifecycle) {
+        final int threads = config.getInt("service.mailbox.threads");
+
+        capacity = config.getInt("service.mailbox.capacity");
+        executor = Executors.newFixedThreadPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors(), new NamedThreadFactory("mailbox"));
+
+        lifecycle.addStopHook(() -> {
+            executor.shutdown();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * @return false if the user's mailbox is full and the task was not accepted
+     */
+    public boolean submit(final long userId, final Supplier<CompletionStage<?>> task) {
+        while (true) {
+            final Mailbox box = boxes.computeIfAbsent(userId, Mailbox::new);
+
+            synchronized (box) {
+                if (box.retired)
+                    continue;
+
+                if (box.tasks.size() >= capacity) {
+                    rejected.increment();
+                    return false;
+                }
+
+                box.tasks.add(task);
+                peak.accumulateAndGet(box.tasks.size(), Math::max);
+                queued.incrementAndGet();
+                accepted.increment();
+
+                if (!box.scheduled) {
+                    box.scheduled = true;
+                    executor.execute(box);
+                }
+
+                return true;
+            }
+        }
+    }
+
+    public int depth(final long userId) {
+        final Mailbox box = boxes.get(userId);
+
+        if (box == null)
+            return 0;
+
+        synchronized (box) {
+            return box.tasks.size();
+        }
+    }
+
+    public int queued() {
+        return queued.get();
+    }
+
+    public JsonNode stats() {
+        final ObjectNode node = Json.newObject();
+
+        node.put("mailboxes", boxes.size());
+        node.put("queued", queued.get());
+        node.put("peakDepth", peak.get());
+        node.put("capacity", capacity);
+        node.put("accepted", accepted.sum());
+        node.put("rejected", rejected.sum());
+        node.put("failed", failed.sum());
+
+        return node;
+    }
+
+    private final class Mailbox implements Runnable {
+        private final long userId;
+        private final Queue<Supplier<CompletionStage<?>>> tasks = new ArrayDeque<>(4);
+        private boolean scheduled, retired;
+
+        private Mailbox(final long userId) {
+            this.userId = userId;
+        }
+
+        @Override
+        public void run() {
+            final Supplier<CompletionStage<?>> task;
+
+            synchronized (this) {
+                if ((task = tasks.poll()) == null) {
+                    scheduled = false;
+                    retired = true;
+                    boxes.remove(userId, this);
+                    return;
+                }
+            }
+
+            CompletionStage<?> stage;
+            try {
+                stage = task.get();
+            } catch (final Throwable e) {
+                final CompletableFuture<?> f = new CompletableFuture<>();
+                f.completeExceptionally(e);
+                stage = f;
+            }
+
+            stage.whenComplete((ignore, e) -> {
+                queued.decrementAndGet();
+
+                if (e != null) {
+                    failed.increment();
+                    logger.error("Mailbox #" + userId + ": " + e.getMessage(), e);
+                }
+
+                executor.execute(this);
+            });
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.typesafe.config.Config;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+import play.libs.ws.WSResponse;
+import utils.ReplyDecoder;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Paces outgoing bot api calls to telegram's flood limits: a global token bucket for all chats and one per chat, calls
+ * of a chat go out in order. A call answered with 429 is put back at the head of its chat's queue and the chat is held
+ * for the retry_after telegram asked for.
+ * <p>
+ * Edits are not merged in the queue: a user's next update waits until the replies to the previous one are applied, so
+ * two edits of one message are not queued at once, and an edit must not overtake what the chat queued before it.
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+@Singleton
+public class OutboundLimiter {
+    private static final Logger.ALogger logger = Logger.of(OutboundLimiter.class);
+
+    private final Bucket global;
+    private final double chatRate, chatBurst;
+    private final int maxRetries;
+    private final boolean enabled;
+
+    private final ConcurrentHashMap<Long, Lane> lanes = new ConcurrentHashMap<>();
+    private final DelayQueue<Lane> ready = new DelayQueue<>();
+
+    private final AtomicInteger queued = new AtomicInteger(0);
+    private final AtomicLong maxWaitNanos = new AtomicLong(0);
+    private final LongAdder sent = new LongAdder(), waitNanos = new LongAdder(), throttled = new LongAdder(), retried = new LongAdder(), gaveUp = new LongAdder();
+
+    private volatile boolean running;
+
+    @Inject
+    public OutboundLimiter(final Config config, final ApplicationLifecycle lifecycle) {
+        enabled = config.getBoolean("service.bot.limits.enabled");
+        global = new Bucket(config.getDouble("service.bot.limits.global.rate"), config.getDouble("service.bot.limits.global.burst"));
+        chatRate = config.getDouble("service.bot.limits.chat.rate");
+        chatBurst = config.getDouble("service.bot.limits.chat.burst");
+        maxRetries = config.getInt("service.bot.limits.retries");
+
+        if (!enabled)
+            return;
+
+        running = true;
+        final Thread sender = new Thread(this::loop, "outbound");
+        sender.setDaemon(true);
+        sender.start();
+
+        lifecycle.addStopHook(() -> {
+            running = false;
+            sender.interrupt();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Queues the call behind the chat's previous ones.
+     *
+     * @param chatId chat the call writes to, 0 for calls limited only globally (deletes)
+     * @return stage of telegram's response, 429s already retried
+     */
+    public CompletionStage<WSResponse> submit(final long chatId, final Supplier<CompletionStage<WSResponse>> call) {
+        final Request request = new Request(call);
+
+        if (!enabled)
+            return request.call.get();
+
+        while (true) {
+            final Lane lane = lanes.computeIfAbsent(chatId, Lane::new);
+
+            synchronized (lane) {
+                if (lane.retired)
+                    continue;
+
+                lane.requests.add(request);
+                queued.incrementAndGet();
+
+                if (!lane.scheduled) {
+                    lane.scheduled = true;
+                    schedule(lane, lane.bucket.availableAt(System.nanoTime()));
+                }
+            }
+
+            return request.future;
+        }
+    }
+
+    public int queued() {
+        return queued.get();
+    }
+
+    public JsonNode stats() {
+        final ObjectNode node = Json.newObject();
+        final long done = Math.max(1, sent.sum());
+
+        node.put("enabled", enabled);
+        node.put("globalRate", global.rate);
+        node.put("chatRate", chatRate);
+        node.put("queued", queued.get());
+        node.put("chats", lanes.size());
+        node.put("sent", sent.sum());
+        node.put("throttled", throttled.sum());
+        node.put("retried", retried.sum());
+        node.put("gaveUp", gaveUp.sum());
+        node.put("avgWaitMs", waitNanos.sum() / done / 1_000_000d);
+        node.put("maxWaitMs", maxWaitNanos.get() / 1_000_000d);
+
+        return node;
+    }
+
+    private void loop() {
+        while (running)
+            try {
+                final Lane lane = ready.take();
+
+                if (postponed(lane))
+                    continue;
+
+                long wait;
+                while ((wait = global.availableAt(System.nanoTime()) - System.nanoTime()) > 0)
+                    TimeUnit.NANOSECONDS.sleep(wait);
+
+                final long now = System.nanoTime();
+                final Request request;
+
+                synchronized (lane) {
+                    if (lane.due - now > 0) { // held by a 429 while waiting for the global bucket
+                        ready.put(lane);
+                        continue;
+                    }
+
+                    request = lane.requests.poll();
+
+                    if (request == null) {
+                        lane.scheduled = false;
+                        lane.retired = true;
+                        lanes.remove(lane.chatId, lane);
+                        continue;
+                    }
+
+                    global.take(now);
+                    lane.bucket.take(now);
+                    schedule(lane, lane.bucket.availableAt(now)); // woken up to either send the next one or retire
+                }
+
+                queued.decrementAndGet();
+                send(lane, request, now);
+            } catch (final InterruptedException e) {
+                break;
+            } catch (final Exception e) {
+                logger.error(e.getMessage(), e);
+            }
+    }
+
+    private boolean postponed(final Lane lane) {
+        synchronized (lane) {
+            if (lane.due - System.nanoTime() <= 0)
+                return false;
+
+            ready.put(lane);
+            return true;
+        }
+    }
+
+    private void send(final Lane lane, final Request request, final long now) {
+        final long waited = now - request.queuedAt;
+
+        sent.increment();
+        waitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        if (waited > 1_000_000)
+            throttled.increment();
+
+        final CompletionStage<WSResponse> stage;
+        try {
+            stage = request.call.get();
+        } catch (final Exception e) {
+            request.future.completeExceptionally(e);
+            return;
+        }
+
+        stage.whenComplete((wsr, e) -> {
+            if (e != null) {
+                request.future.completeExceptionally(e);
+                return;
+            }
+
+            final long retryAfter = wsr.getStatus() == 429 ? retryAfter(wsr) : -1;
+
+            if (retryAfter < 0 || request.attempts >= maxRetries) {
+                if (retryAfter >= 0)
+                    gaveUp.increment();
+
+                request.future.complete(wsr);
+                return;
+            }
+
+            retried.increment();
+            request.attempts++;
+            request.queuedAt = System.nanoTime();
+            hold(lane.chatId, request, TimeUnit.SECONDS.toNanos(Math.max(1, retryAfter)));
+        });
+    }
+
+    // back to the head of the chat's queue, the chat waits as long as telegram asked
+    private void hold(final long chatId, final Request request, final long pauseNanos) {
+        while (true) {
+            final Lane lane = lanes.computeIfAbsent(chatId, Lane::new);
+
+            synchronized (lane) {
+                if (lane.retired)
+                    continue;
+
+                lane.requests.addFirst(request);
+                queued.incrementAndGet();
+
+                // out of the queue first: its heap is ordered by the due time about to change
+                if (ready.remove(lane) || !lane.scheduled) {
+                    lane.scheduled = true;
+                    schedule(lane, System.nanoTime() + pauseNanos);
+                } else // held by the sender, which re-checks the due time under the lane's lock
+                    lane.due = Math.max(lane.due, System.nanoTime() + pauseNanos);
+            }
+
+            return;
+        }
+    }
+
+    // the due time is the lane's key in the delay queue: it is changed only while the lane is out of the queue
+    private void schedule(final Lane lane, final long due) {
+        lane.due = Math.max(lane.due, due);
+        ready.put(lane);
+    }
+
+    private static long retryAfter(final WSResponse wsr) {
+        try {
+            final long after = ReplyDecoder.decode(wsr.getBodyAsBytes().toArray()).retryAfter;
+            return after > 0 ? after : 1;
+        } catch (final Exception e) {
+            return 1;
+        }
+    }
+
+    private static final class Request {
+        private final Supplier<CompletionStage<WSResponse>> call;
+        private final CompletableFuture<WSResponse> future = new CompletableFuture<>();
+        private long queuedAt = System.nanoTime();
+        private int attempts;
+
+        private Request(final Supplier<CompletionStage<WSResponse>> call) {
+            this.call = call;
+        }
+    }
+
+    private final class Lane implements Delayed {
+        private final long chatId;
+        private final Bucket bucket;
+        private final ArrayDeque<Request> requests = new ArrayDeque<>(2);
+        private volatile long due;
+        private boolean scheduled, retired;
+
+        private Lane(final long chatId) {
+            this.chatId = chatId;
+            bucket = chatId == 0 ? new Bucket(0, 0) : new Bucket(chatRate, chatBurst);
+        }
+
+        @Override
+        public long getDelay(final TimeUnit unit) {
+            return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(final Delayed o) {
+            return Long.compare(due, ((Lane) o).due);
+        }
+    }
+
+    /**
+     * Token bucket refilled continuously, rate 0 means unlimited.
+     */
+    private static final class Bucket {
+        private final double rate, burst;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        private Bucket(final double rate, final double burst) {
+            this.rate = rate;
+            this.burst = Math.max(1, burst);
+            tokens = this.burst;
+        }
+
+        private synchronized long availableAt(final long now) {
+            if (rate <= 0)
+                return now;
+
+            refill(now);
+            return tokens >= 1 ? now : now + (long) ((1 - tokens) / rate * 1_000_000_000L);
+        }
+
+        private synchronized void take(final long now) {
+            if (rate <= 0)
+                return;
+
+            refill(now);
+            tokens -= 1;
+        }
+
+        private void refill(final long now) {
+            tokens = Math.min(burst, tokens + (now - refilledAt) * rate / 1_000_000_000L);
+            refilledAt = now;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.typesafe.config.Config;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+import utils.NamedThreadFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Isolated bounded executors for the stages of an update's way through the bot, so a slow dependency of one stage
+ * (postgres, telegram) cannot starve the others.
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+@Singleton
+public class Pipeline {
+    public enum Stage {
+        /**
+         * webhook payload decoding and routing into the user's mailbox
+         */
+        PARSE(false),
+        /**
+         * user lookup / creation
+         */
+        RESOLVE(true),
+        /**
+         * role logic, incl. its queries and rendering of the answer
+         */
+        EXECUTE(true),
+        /**
+         * outgoing telegram calls and their replies, no jdbc here
+         */
+        DISPATCH(false),
+        /**
+         * jdbc side effects of telegram replies: service windows, last message ids
+         */
+        STORE(true);
+
+        /**
+         * stage waits on jdbc, so it may run on virtual threads
+         */
+        public final boolean blocking;
+
+        Stage(final boolean blocking) {
+            this.blocking = blocking;
+        }
+    }
+
+    private static final Logger.ALogger logger = Logger.of(Pipeline.class);
+
+    private final Map<Stage, StageExecutor> executors = new EnumMap<>(Stage.class);
+
+    @Inject
+    public Pipeline(final Config config, final ApplicationLifecycle lifecycle) {
+        final int cores = Runtime.getRuntime().availableProcessors();
+        final boolean virtual = "virtual".equals(config.getString("service.pipeline.mode"));
+
+        for (final Stage stage : Stage.values()) {
+            final String path = "service.pipeline." + stage.name().toLowerCase();
+            final int threads = config.getInt(path + ".threads");
+            final ExecutorService perTask = virtual && stage.blocking ? virtualThreads() : null;
+
+            if (perTask != null)
+                executors.put(stage, new StageExecutor(perTask));
+            else
+                executors.put(stage, new StageExecutor(new ThreadPoolExecutor(threads > 0 ? threads : cores, threads > 0 ? threads : cores, 60, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<>(config.getInt(path + ".queue")), new NamedThreadFactory(stage.name().toLowerCase()),
+                        // webhook intake is the only place where a refusal can be passed back to telegram
+                        stage == Stage.PARSE ? new ThreadPoolExecutor.AbortPolicy() : new ThreadPoolExecutor.CallerRunsPolicy())));
+        }
+
+        lifecycle.addStopHook(() -> {
+            executors.values().forEach(e -> e.pool.shutdown());
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    // jdk 21+ only, looked up reflectively since the bot is built for older jdks as well
+    private static ExecutorService virtualThreads() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final Exception e) {
+            logger.warn("Virtual threads are not available in this jvm, falling back to thread pools");
+            return null;
+        }
+    }
+
+    public Executor executor(final Stage stage) {
+        return executors.get(stage);
+    }
+
+    public JsonNode stats() {
+        final ObjectNode node = Json.newObject();
+
+        executors.forEach((stage, executor) -> node.set(stage.name().toLowerCase(), executor.stats()));
+
+        return node;
+    }
+
+    private static final class StageExecutor implements Executor {
+        private final ExecutorService pool;
+        private final AtomicInteger waiting = new AtomicInteger(0), running = new AtomicInteger(0);
+        private final LongAdder completed = new LongAdder(), queueNanos = new LongAdder(), serviceNanos = new LongAdder();
+        private final AtomicLong maxQueueNanos = new AtomicLong(0), maxServiceNanos = new AtomicLong(0);
+
+        private StageExecutor(final ExecutorService pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            final long enqueued = System.nanoTime();
+
+            waiting.incrementAndGet();
+            try {
+                pool.execute(() -> {
+                    final long started = System.nanoTime();
+                    waiting.decrementAndGet();
+                    running.incrementAndGet();
+
+                    try {
+                        command.run();
+                    } finally {
+                        running.decrementAndGet();
+                        final long finished = System.nanoTime();
+
+                        queueNanos.add(started - enqueued);
+                        serviceNanos.add(finished - started);
+                        maxQueueNanos.accumulateAndGet(started - enqueued, Math::max);
+                        maxServiceNanos.accumulateAndGet(finished - started, Math::max);
+                        completed.increment();
+                    }
+                });
+            } catch (final RejectedExecutionException e) {
+                waiting.decrementAndGet();
+                throw e;
+            }
+        }
+
+        private JsonNode stats() {
+            final ObjectNode node = Json.newObject();
+            final long done = Math.max(1, completed.sum());
+
+            if (pool instanceof ThreadPoolExecutor)
+                node.put("threads", ((ThreadPoolExecutor) pool).getMaximumPoolSize());
+            else
+                node.put("threads", "virtual");
+            node.put("active", running.get());
+            node.put("queued", waiting.get());
+            node.put("completed", completed.sum());
+            node.put("avgQueueMs", queueNanos.sum() / done / 1_000_000d);
+            node.put("avgServiceMs", serviceNanos.sum() / done / 1_000_000d);
+            node.put("maxQueueMs", maxQueueNanos.get() / 1_000_000d);
+            node.put("maxServiceMs", maxServiceNanos.get() / 1_000_000d);
+
+            return node;
+        }
+    }
+}
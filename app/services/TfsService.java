@@ -1,5 +1,6 @@
 package services;
 
+import com.typesafe.config.Config;
 import model.ContentType;
 import model.Share;
 import model.TFile;
@@ -8,16 +9,23 @@ import model.user.DirGearer;
 import model.user.DirViewer;
 import model.user.Searcher;
 import model.user.Sharer;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionManager;
 import org.mybatis.guice.transactional.Transactional;
 import play.Logger;
 import sql.EntryMapper;
+import sql.Scope;
 import sql.ShareMapper;
 import sql.TFileSystem;
+import sql.UserMapper;
 import utils.LangMap;
 import utils.TextUtils;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -25,13 +33,29 @@ import static utils.LangMap.v;
 import static utils.TextUtils.*;
 
 /**
+ * A user's storage is named by its suffix: 'p' and the number of the pre-provisioned slot the user claimed, or the
+ * user's id for users created before the pool or when it ran dry. In the shared mode users' entries are rows of one
+ * table partitioned by owner, a user still in its own tables is moved there the first time its entries are touched.
+ *
  * @author Denis Danilin | denis@danilin.name
  * 31.05.2020
  * tfs ☭ sweat and blood
  */
+@Singleton
 public class TfsService {
     private static final Logger.ALogger logger = Logger.of(TfsService.class);
     private final static String tablePrefix = "fs_data_", userFsPrefix = "fs_user_", pathesTree = "fs_paths_", sharePrefix = "fs_share_";
+    // a big subtree is removed in chunks of this many entries per statement, under the driver's limit of parameters
+    private final static int rmChunk = 1000;
+
+    // storage suffixes of users, as read or assigned
+    private final ConcurrentHashMap<Long, String> storages = new ConcurrentHashMap<>();
+    // users whose tables are known to exist, added once it is committed
+    private final Set<Long> provisioned = ConcurrentHashMap.newKeySet();
+    // shared mode: users known to be in the entries table, added once it is committed
+    private final Set<Long> inEntries = ConcurrentHashMap.newKeySet();
+
+    private final boolean sharedEntries;
 
     @Inject
     private TFileSystem fs;
@@ -42,36 +66,233 @@ public class TfsService {
     @Inject
     private EntryMapper entries;
 
+    @Inject
+    private UserMapper users;
+
+    @Inject
+    private StoragePool pool;
+
+    @Inject
+    private SqlSessionManager sessions;
+
+    @Inject
+    public TfsService(final Config config) {
+        sharedEntries = "shared".equals(config.getString("service.storage.mode"));
+    }
+
+    /**
+     * Gives the new user a storage: a slot of the pool if there is a free one, otherwise its tables are created now.
+     * Runs in the transaction of the user's creation, so the user is not remembered as provisioned or moved here: the
+     * first use after the commit finds it out.
+     *
+     * @return id of the user's root
+     */
     @Transactional
     public UUID initUserTables(final long userId) {
-        fs.createRootTable(tablePrefix + userId);
-        fs.createIndex(tablePrefix + userId, tablePrefix + userId + "_names", "name");
+        if (sharedEntries) {
+            final UUID rootId = generateUuid();
+            fs.makeEntry(rootId, "", null, ContentType.DIR, null, 0, Scope.entries(userId));
+            users.markInEntries(userId);
+
+            return rootId;
+        }
 
-        fs.createFsView(userFsPrefix + userId, userId, tablePrefix + userId, Collections.emptyList());
-        fs.createFsTree(pathesTree + userId, userFsPrefix + userId);
+        final Map<String, Object> slot = pool.claim(userId);
+
+        if (slot != null) {
+            storages.put(userId, (String) slot.get("storage"));
+            return (UUID) slot.get("root_id");
+        }
+
+        storages.put(userId, String.valueOf(userId));
+        fs.createRootTable(dataTable(userId));
+        fs.createIndex(dataTable(userId), dataTable(userId) + "_names", "name");
+
+        fs.createFsView(fsView(userId), userId, dataTable(userId), Collections.emptyList());
+        fs.createFsTree(pathsView(userId), fsView(userId));
 
         final UUID rootId = generateUuid();
-        fs.makeEntry(rootId, "", null, ContentType.DIR, null, 0, tablePrefix + userId);
+        fs.makeEntry(rootId, "", null, ContentType.DIR, null, 0, scope(userId));
+
+        return rootId;
+    }
+
+    /**
+     * Rebuilds the user's views, and the table if it is missed. The table of a user known to be provisioned is not looked
+     * up in the catalog.
+     *
+     * @return id of the new root if the user's table was missed and is recreated, null otherwise
+     */
+    public UUID reinitUserTables(final long userId) {
+        if (sharedEntries) {
+            scope(userId); // there is nothing to rebuild, only to move over
+            return null;
+        }
+
+        UUID rootId = null;
+        if (!provisioned.contains(userId) && fs.isTableMissed(dataTable(userId))) {
+            fs.createRootTable(dataTable(userId));
+            fs.createIndex(dataTable(userId), dataTable(userId) + "_names", "name");
+            fs.makeEntry(rootId = generateUuid(), "", null, ContentType.DIR, null, 0, scope(userId));
+            users.setRootId(rootId, userId);
+        }
+        provisioned.add(userId);
+
+        fs.dropView(fsView(userId)); // if exists, cascades to the paths view
+
+        fs.createFsView(fsView(userId), userId, dataTable(userId), Collections.emptyList());
+        fs.createFsTree(pathsView(userId), fsView(userId));
 
         return rootId;
     }
 
-    public void reinitUserTables(final long userId) {
-        if (fs.isTableMissed(tablePrefix + userId)) {
-            fs.createRootTable(tablePrefix + userId);
-            fs.createIndex(tablePrefix + userId, tablePrefix + userId + "_names", "name");
-            fs.makeEntry(generateUuid(), "", null, ContentType.DIR, null, 0, tablePrefix + userId);
+    /**
+     * Creates a free storage slot for the pool: table, views and root. The views take the owner from whoever claims
+     * the slot, until they are rebuilt with the owner's shares.
+     */
+    @Transactional
+    public void provisionSlot() {
+        final long slot = fs.nextSlot();
+        final String storage = "p" + slot;
+
+        fs.createRootTable(tablePrefix + storage);
+        fs.createIndex(tablePrefix + storage, tablePrefix + storage + "_names", "name");
+        fs.createSlotView(userFsPrefix + storage, storage, tablePrefix + storage);
+        fs.createFsTree(pathesTree + storage, userFsPrefix + storage);
+
+        final UUID rootId = generateUuid();
+        fs.makeEntry(rootId, "", null, ContentType.DIR, null, 0, Scope.tables(tablePrefix + storage, userFsPrefix + storage, pathesTree + storage));
+        fs.addSlot(slot, rootId);
+    }
+
+    /**
+     * Remembers the storage of a user read from the database.
+     *
+     * @param storage null for a user named by its id
+     * @param moved   whether the user's entries are in the entries table already
+     */
+    public void knownStorage(final long userId, final String storage, final boolean moved) {
+        storages.put(userId, storage == null ? String.valueOf(userId) : storage);
+
+        if (moved)
+            inEntries.add(userId);
+    }
+
+    /**
+     * Moves the user from its own tables to the entries table: its rows, and the shares applied to it as mounts. Owners
+     * of those shares are moved along, for the mounts to show their entries. The user's row is locked for the time, so
+     * a user is moved once however many threads need it; the old tables are left as they are.
+     * <p>
+     * The move is a transaction of its own on a connection of its own: the user is known to be in the entries table
+     * only once it is committed, before that its entries are reached through the lock, which waits for the move. Not
+     * to be called in a transaction, its connection would be held meanwhile.
+     *
+     * @return true if the user is moved by this call
+     */
+    public boolean moveToEntries(final long userId) {
+        final Set<Long> moved = new HashSet<>();
+        final boolean byThis;
+
+        try (final SqlSession session = sessions.openSession(ExecutorType.SIMPLE, false)) {
+            byThis = move(userId, session.getMapper(TFileSystem.class), session.getMapper(UserMapper.class), moved);
+            session.commit();
+        }
+
+        inEntries.addAll(moved);
+
+        return byThis;
+    }
+
+    /**
+     * Moves the user over if it is the mode and the user is not known to be moved yet. Called before the user's update
+     * is handled, out of any transaction.
+     */
+    public void ensureInEntries(final long userId) {
+        if (sharedEntries && !inEntries.contains(userId))
+            moveToEntries(userId);
+    }
+
+    // adds the users found or made moved to the set
+    private boolean move(final long userId, final TFileSystem fs, final UserMapper users, final Set<Long> moved) {
+        final Boolean flag = users.lockInEntries(userId);
+
+        if (flag == null)
+            return false;
+
+        moved.add(userId);
+
+        if (flag)
+            return false;
+
+        if (!fs.isTableMissed(dataTable(userId))) {
+            fs.copyEntries(userId, dataTable(userId));
+            fs.fillPaths(userId);
+            fs.fillTree(userId);
         }
 
-        if (!fs.isViewMissed(userFsPrefix + userId))
-            fs.dropView(userFsPrefix + userId);
+        final List<String> views = fs.selectShareViewsLike(appliedShareViews(userId));
+        // имя шары: fs_share_КомуВыданаШара_КемВыдана_ИдШары
+        views.forEach(name -> fs.mountShareView(userId, name.split(Pattern.quote("_"))[4], name));
+
+        users.markInEntries(userId);
+        views.stream()
+                .map(name -> getLong(name.split(Pattern.quote("_"))[3]))
+                .distinct()
+                .filter(owner -> !inEntries.contains(owner) && !moved.contains(owner))
+                .forEach(owner -> move(owner, fs, users, moved));
+
+        return true;
+    }
+
+    // the user's entries for the mappers, moved to the entries table first if it is the mode; a user not known to be
+    // moved is checked under its row's lock, which waits for a move in progress, so its entries are used only committed.
+    // In a transaction the caller holds a connection already and the move would take one more: the lock is taken in
+    // the caller's transaction instead and kept till its end, a user still in its tables is used there, a move waits
+    private Scope scope(final long userId) {
+        if (!sharedEntries)
+            return Scope.tables(dataTable(userId), fsView(userId), pathsView(userId));
+
+        if (inEntries.contains(userId))
+            return Scope.entries(userId);
+
+        if (!sessions.isManagedSessionStarted()) {
+            moveToEntries(userId);
+            return Scope.entries(userId);
+        }
+
+        final Boolean moved = users.lockInEntries(userId);
+
+        if (Boolean.FALSE.equals(moved))
+            return Scope.tables(dataTable(userId), fsView(userId), pathsView(userId));
+
+        if (moved != null) // committed by the move the lock has waited for
+            inEntries.add(userId);
+
+        return Scope.entries(userId);
+    }
+
+    private String storage(final long userId) {
+        final String known = storages.get(userId);
+
+        if (known != null)
+            return known;
 
-        fs.createFsView(userFsPrefix + userId, userId, tablePrefix + userId, Collections.emptyList());
+        final String storage = notNull(users.selectStorage(userId), String.valueOf(userId));
+        storages.put(userId, storage);
 
-        if (!fs.isViewMissed(pathesTree + userId))
-            fs.dropView(pathesTree + userId);
+        return storage;
+    }
+
+    private String dataTable(final long userId) {
+        return tablePrefix + storage(userId);
+    }
+
+    private String fsView(final long userId) {
+        return userFsPrefix + storage(userId);
+    }
 
-        fs.createFsTree(pathesTree + userId, userFsPrefix + userId);
+    private String pathsView(final long userId) {
+        return pathesTree + storage(userId);
     }
 
     @Transactional
@@ -99,9 +320,20 @@ public class TfsService {
             shareAppliedByProducer(nShare, sharedTo, user);
     }
 
+    @Transactional
     public void updateMeta(final TFile file, final User user) {
         if (file.isRw())
-            fs.updateEntry(file.getName(), file.getParentId(), file.getOptions(), file.getId(), user.id, tablePrefix + file.getOwner());
+            updateEntry(file);
+    }
+
+    // a move in the entries table unlinks the subtree first, in a statement of its own
+    private void updateEntry(final TFile entry) {
+        final Scope scope = scope(entry.getOwner());
+
+        if (scope.isShared())
+            fs.unlinkEntry(entry.getId(), entry.getParentId(), scope);
+
+        fs.updateEntry(entry.getName(), entry.getParentId(), entry.getOptions(), entry.getId(), scope);
     }
 
     public TFile applyShareByLink(final Share share, final User consumer) {
@@ -117,8 +349,8 @@ public class TfsService {
 
     @Transactional
     private TFile applyShare(final Share share, final String holderDirName, final String langTag, final long consumerId, final UUID consumerRootId) {
-        final String tableName = tablePrefix + consumerId;
-        final List<TFile> rootDirs = fs.selectRootDirs(tableName);
+        final Scope scope = scope(consumerId);
+        final List<TFile> rootDirs = fs.selectRootDirs(scope);
 
         final TFile sharesHomeRoot = rootDirs.stream().filter(TFile::isSharesRoot).findFirst().orElseGet(() -> {
             final TFile dir = new TFile();
@@ -127,7 +359,7 @@ public class TfsService {
             return makeSysDir(v(LangMap.Value.SHARES, langTag), consumerRootId, null, dir.getOptions(), consumerId);
         });
 
-        final List<TFile> subs = fs.selectSubDirs(sharesHomeRoot.getId(), tableName);
+        final List<TFile> subs = fs.selectSubDirs(sharesHomeRoot.getId(), scope);
 
         final TFile shareHolder = subs.stream().filter(d -> d.isShareFor() && d.getName().equals(holderDirName)).findAny().orElseGet(() -> {
             final TFile dir = new TFile();
@@ -136,20 +368,31 @@ public class TfsService {
             return makeSysDir(holderDirName, sharesHomeRoot.getId(), dir.getRefId(), dir.getOptions(), consumerId);
         });
 
+        if (sharedEntries) {
+            scope(share.getOwner());
+            fs.addMount(consumerId, share.getId(), share.getOwner(), share.getEntryId(), shareHolder.getId());
+
+            return shareHolder;
+        }
+
         fs.createShareView(
                 sharePrefix + consumerId + "_" + share.getOwner() + "_" + share.getId(),
                 share.getId(),
                 share.getEntryId().toString(),
                 shareHolder.getId().toString(),
-                tablePrefix + share.getOwner());
+                dataTable(share.getOwner()));
 
-        fs.createFsView(userFsPrefix + consumerId, consumerId, tablePrefix + consumerId, fs.selectShareViewsLike(appliedShareViews(consumerId)));
+        fs.createFsView(fsView(consumerId), consumerId, dataTable(consumerId), fs.selectShareViewsLike(appliedShareViews(consumerId)));
 
         return shareHolder;
     }
 
     @Transactional
     public void shareRemoved(final Share share) {
+        if (sharedEntries)
+            fs.dropMounts(share.getId());
+
+        // views of consumers not moved yet, for them not to get it mounted when they are
         final List<String> shareViews = fs.selectShareViewsLike(shareSharesViews(share.getId()));
 
         if (shareViews.isEmpty())
@@ -161,7 +404,8 @@ public class TfsService {
 
         byConsumers.forEach((key, value) -> {
             value.forEach(name -> fs.dropView(name));
-            fs.createFsView(userFsPrefix + key, key, tablePrefix + key, fs.selectShareViewsLike(ownerShareViews(key)));
+            if (!sharedEntries)
+                fs.createFsView(fsView(key), key, dataTable(key), fs.selectShareViewsLike(ownerShareViews(key)));
         });
     }
 
@@ -173,10 +417,10 @@ public class TfsService {
         }
 
         final UUID uuid = generateUuid();
-        fs.dropEntry(file.getName(), file.getParentId(), file.getOwner(), tablePrefix + file.getOwner());
-        fs.makeEntry(uuid, file.getName(), file.getParentId(), file.getType(), file.getRefId(), file.getOptions(), tablePrefix + file.getOwner());
+        fs.dropEntry(file.getName(), file.getParentId(), scope(file.getOwner()));
+        fs.makeEntry(uuid, file.getName(), file.getParentId(), file.getType(), file.getRefId(), file.getOptions(), scope(file.getOwner()));
 
-        return entries.getEntry(uuid, userFsPrefix + file.getOwner(), pathesTree + file.getOwner());
+        return entries.getEntry(uuid, scope(file.getOwner()));
     }
 
     private String shareSharesViews(final String shareId) {
@@ -195,11 +439,11 @@ public class TfsService {
     }
 
     private TFile makeSysDir(final String name0, final UUID parentId, final String refId, final int options, final long userId) {
-        final String tableName = tablePrefix + userId;
+        final Scope scope = scope(userId);
         String name = name0;
         int counter = 1;
 
-        while (fs.isNameBusy(name, parentId, tableName))
+        while (fs.isNameBusy(name, parentId, scope))
             name = name0 + " (" + (counter++) + ")";
 
         final TFile dir = new TFile();
@@ -210,7 +454,7 @@ public class TfsService {
         dir.setRefId(refId);
         dir.setOptions(options);
 
-        fs.makeEntry(dir.getId(), dir.getName(), dir.getParentId(), ContentType.DIR, dir.getRefId(), dir.getOptions(), tableName);
+        fs.makeEntry(dir.getId(), dir.getName(), dir.getParentId(), ContentType.DIR, dir.getRefId(), dir.getOptions(), scope);
 
         return dir;
     }
@@ -220,43 +464,49 @@ public class TfsService {
     }
 
     public boolean entryMissed(final String name, final User user) {
-        return !fs.isEntryExist(name, user.entryId(), userFsPrefix + user.id);
+        return !fs.isEntryExist(name, user.entryId(), scope(user.id));
     }
 
     public TFile get(final UUID id, final User user) {
-        return entries.getEntry(id, userFsPrefix + user.id, pathesTree + user.id);
+        return entries.getEntry(id, scope(user.id));
     }
 
     public void rm(final UUID entryId, final User user) {
-        final List<TFile> all = entries.getTree(entryId, userFsPrefix + user.id).stream().filter(TFile::isRw).collect(Collectors.toList());
+        final List<TFile> all = entries.getTree(entryId, scope(user.id)).stream().filter(TFile::isRw).collect(Collectors.toList());
 
-        all.forEach(entry -> {
-            shared.getEntryShares(entry.getId(), entry.getOwner()).forEach(this::shareRemoved);
-            fs.dropLock(entry.getId());
-        });
+        all.stream().collect(Collectors.groupingBy(TFile::getOwner)).forEach((userId, tFiles) -> {
+            final List<UUID> ids = tFiles.stream().map(TFile::getId).collect(Collectors.toList());
 
-        all.stream().collect(Collectors.groupingBy(TFile::getOwner))
-                .forEach((userId, tFiles) -> entries.rmList(tFiles.stream().map(TFile::getId).collect(Collectors.toList()), tablePrefix + userId));
+            for (int i = 0; i < ids.size(); i += rmChunk) {
+                final List<UUID> chunk = ids.subList(i, Math.min(ids.size(), i + rmChunk));
+
+                shared.getEntriesShares(chunk, userId).forEach(this::shareRemoved);
+                fs.dropLocks(chunk);
+                entries.rmList(chunk, scope(userId));
+            }
+        });
     }
 
     public List<TFile> search(final Searcher searcher) {
         if (isEmpty(searcher.query))
             return Collections.emptyList();
 
-        return entries.searchContent("%" + searcher.query.toLowerCase().trim() + "%", searcher.entryId, searcher.offset, 10, userFsPrefix + searcher.user.id, pathesTree + searcher.user.id);
+        return entries.searchContent("%" + searcher.query.toLowerCase().trim() + "%", searcher.entryId, searcher.offset, 10, scope(searcher.user.id));
     }
 
+    @Transactional
     public void lockEntry(final TFile entry, final String salt, final String password) {
         fs.dropLock(entry.getId());
         fs.createLock(entry.getId(), salt, password);
         entry.setLocked();
-        fs.updateEntry(entry.getName(), entry.getParentId(), entry.getOptions(), entry.getId(), entry.getOwner(), tablePrefix + entry.getOwner());
+        updateEntry(entry);
     }
 
+    @Transactional
     public void unlockEntry(final TFile entry) {
         fs.dropLock(entry.getId());
         entry.setUnlocked();
-        fs.updateEntry(entry.getName(), entry.getParentId(), entry.getOptions(), entry.getId(), entry.getOwner(), tablePrefix + entry.getOwner());
+        updateEntry(entry);
     }
 
     public boolean passwordFailed(final UUID uuid, final String password) {
@@ -267,43 +517,43 @@ public class TfsService {
     }
 
     public List<TFile> listFolder(final UUID dirId, final int offset, final int limit, final long userId) {
-        return entries.lsDirContent(dirId, offset, limit, userFsPrefix + userId, pathesTree + userId);
+        return entries.lsDirContent(dirId, offset, limit, scope(userId));
     }
 
     public List<TFile> gearFolder(final UUID dirId, final DirGearer gearer) {
-        return entries.gearDirContent(dirId, gearer.offset, 10, userFsPrefix + gearer.user.id, pathesTree + gearer.user.id);
+        return entries.gearDirContent(dirId, gearer.offset, 10, scope(gearer.user.id));
     }
 
     public int countFolder(final UUID dirId, final long userId) {
-        return entries.countDirLs(dirId, userFsPrefix + userId);
+        return entries.countDirLs(dirId, scope(userId));
     }
 
     public List<String> listLabels(final UUID dirId, final long userId) {
-        return entries.lsDirLabels(dirId, userFsPrefix + userId);
+        return entries.lsDirLabels(dirId, scope(userId));
     }
 
     public TFile getFolderEntry(final UUID dirId, final int idx, final DirViewer viewer) {
-        final List<TFile> list = entries.lsDirContent(dirId, viewer.offset + idx, 1, userFsPrefix + viewer.user.id, pathesTree + viewer.user.id);
+        final List<TFile> list = entries.lsDirContent(dirId, viewer.offset + idx, 1, scope(viewer.user.id));
 
         return isEmpty(list) ? null : list.get(0);
     }
 
     public TFile getGearEntry(final UUID dirId, final int idx, final DirGearer gearer) {
-        final List<TFile> list = entries.gearDirContent(dirId, idx, 1, userFsPrefix + gearer.user.id, pathesTree + gearer.user.id);
+        final List<TFile> list = entries.gearDirContent(dirId, idx, 1, scope(gearer.user.id));
 
         return isEmpty(list) ? null : list.get(0);
     }
 
     public int countDirLabels(final UUID id, final long userId) {
-        return entries.countDirGear(id, userFsPrefix + userId);
+        return entries.countDirGear(id, scope(userId));
     }
 
     public TFile getParentOf(final UUID entryId, final User user) {
-        return entries.getParent(entryId, userFsPrefix + user.id, pathesTree + user.id);
+        return entries.getParent(entryId, scope(user.id));
     }
 
     public int countSearch(final String query, final UUID dirId, final User user) {
-        return entries.countSearch("%" + query.toLowerCase().trim() + "%", dirId, userFsPrefix + user.id);
+        return entries.countSearch("%" + query.toLowerCase().trim() + "%", dirId, scope(user.id));
     }
 
     // entry shares
@@ -313,7 +563,7 @@ public class TfsService {
 
     public void makeEntryLink(final UUID entryId, final User owner) {
         makeShare(
-                entries.getEntry(entryId, userFsPrefix + owner.id, pathesTree + owner.id).getName(),
+                entries.getEntry(entryId, scope(owner.id)).getName(),
                 owner,
                 entryId,
                 null);
@@ -353,8 +603,7 @@ public class TfsService {
     }
 
     public TFile getSearchEntry(final String query, final int elementIdx, final Searcher searcher) {
-        final List<TFile> list = entries.searchContent("%" + query.toLowerCase().trim() + "%", searcher.entryId, searcher.offset + elementIdx, 1, userFsPrefix + searcher.user.id,
-                pathesTree + searcher.user.id);
+        final List<TFile> list = entries.searchContent("%" + query.toLowerCase().trim() + "%", searcher.entryId, searcher.offset + elementIdx, 1, scope(searcher.user.id));
 
         return list.isEmpty() ? null : list.get(0);
     }
@@ -1,28 +1,31 @@
 package services;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import com.typesafe.config.Config;
 import model.*;
+import org.mybatis.guice.transactional.Transactional;
 import play.Logger;
-import play.libs.Json;
-import play.libs.ws.WSClient;
+import play.libs.ws.WSResponse;
 import sql.TFileSystem;
+import utils.Fingerprint;
+import utils.JsonBody;
 import utils.LangMap;
+import utils.ReplyDecoder;
 import utils.TextUtils;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
-import java.util.function.Consumer;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static utils.LangMap.v;
 import static utils.TextUtils.isEmpty;
-import static utils.TextUtils.notNull;
 
 /**
  * @author Denis Danilin | denis@danilin.name
@@ -33,23 +36,37 @@ import static utils.TextUtils.notNull;
 public class TgApi {
     private static final Logger.ALogger logger = Logger.of(TgApi.class);
     public static final Keyboard voidKbd = new Keyboard().button(CommandType.Void.b());
+    private static final Keyboard emptyKbd = new Keyboard();
 
-    private final String apiUrl;
-    private final WSClient ws;
+    private final TgTransport transport;
     private final TFileSystem fs;
+    private final Executor dispatch, store;
+    private final OutboundLimiter limiter;
+    private final UserStore users;
 
     @Inject
-    public TgApi(final Config config, final WSClient ws, final TFileSystem fs) {
-        this.ws = ws;
+    public TgApi(final TgTransport transport, final TFileSystem fs, final Pipeline pipeline, final OutboundLimiter limiter, final UserStore users) {
+        this.transport = transport;
         this.fs = fs;
-        apiUrl = config.getString("service.bot.api_url");
+        this.limiter = limiter;
+        this.users = users;
+        dispatch = pipeline.executor(Pipeline.Stage.DISPATCH);
+        store = pipeline.executor(Pipeline.Stage.STORE);
     }
 
-    public void cleanup(final long userId) {
-        final Collection<Long> wins = fs.selectServiceWindows(userId);
-        wins.forEach(msgId -> CompletableFuture.runAsync(() -> deleteMessage(msgId, userId)));
-        if (!wins.isEmpty())
-            fs.deleteServiceWindows(userId);
+    /**
+     * Drops the user's service windows, rows and messages, together with the given extra messages: one statement and a
+     * deleteMessages call per hundred ids.
+     */
+    @Transactional(force = true)
+    public void cleanup(final long userId, final long... alsoDelete) {
+        final List<Long> ids = new ArrayList<>(fs.takeServiceWindows(userId));
+
+        for (final long id : alsoDelete)
+            if (id > 0)
+                ids.add(id);
+
+        deleteMessages(ids, userId);
     }
 
     public void dialog(final LangMap.Value text, final User user, final Object... args) {
@@ -57,258 +74,294 @@ public class TgApi {
     }
 
     public void dialog(final LangMap.Value text, final User user, final Keyboard kbd, final Object... args) {
-        CompletableFuture.runAsync(() -> sendText(TextUtils.escapeMd(v(text, user, args)), ParseMode.md2, kbd.toJson(), user.id)
-                .thenAccept(reply -> fs.addServiceWin(reply.messageId, user.id)));
+        CompletableFuture.runAsync(() -> sendText(TextUtils.escapeMd(v(text, user, args)), ParseMode.md2, kbd, user.id)
+                .thenAcceptAsync(reply -> fs.addServiceWin(reply.messageId, user.id), store), dispatch);
     }
 
     public void dialogUnescaped(final LangMap.Value text, final User user, final Keyboard kbd, final Object... args) {
-        CompletableFuture.runAsync(() -> sendText(v(text, user, args), ParseMode.md2, kbd.toJson(), user.id)
-                .thenAccept(reply -> fs.addServiceWin(reply.messageId, user.id)));
+        CompletableFuture.runAsync(() -> sendText(v(text, user, args), ParseMode.md2, kbd, user.id)
+                .thenAcceptAsync(reply -> fs.addServiceWin(reply.messageId, user.id), store), dispatch);
     }
 
+    /**
+     * Shows the content in the user's message, editing it if possible. The user's next update waits until telegram's
+     * reply is applied to the user. Must be called from the user's mailbox.
+     */
     public void sendContent(final TFile file, final String body, final String format, final Keyboard keyboard, final User user) {
-        sendContent(file, body, format, keyboard, user, 0);
+        user.awaitReply(sendContent(file, body, format, keyboard, user, 0));
     }
 
-    private void sendContent(final TFile file, final String body, final String format, final Keyboard keyboard, final User user, final int cnt) {
+    // completed once the reply is applied, our own resend of a refused edit included; error notes run outside of the
+    // mailbox, nothing waits for them
+    private CompletableFuture<Void> sendContent(final TFile file, final String body, final String format, final Keyboard keyboard, final User user, final int cnt) {
         final Function<Throwable, Void> fuckup = e -> {
             logger.error("[#" + cnt + "] " + e.getMessage(), e);
             return null;
         };
 
-        if (diffState(file, user.lastRefId)) {
+        final long refFp = Fingerprint.of(file == null ? "" : file.getRefId());
+        final long textFp = Fingerprint.of(body);
+        final long kbdFp = keyboard == null ? 0 : Fingerprint.of(keyboard.encoded());
+
+        if (diffState(file, user.lastRefFp)) {
             final long toDel = user.lastMessageId;
-            CompletableFuture.runAsync(() -> deleteMessage(toDel, user.id));
+            deleteMessage(toDel, user.id);
             user.lastMessageId = 0;
         }
 
-        final String ks = keyboard == null ? null : keyboard.toJson().toString();
-        final Consumer<TgApi.Reply> sendSuccessConsumer = reply -> {
+        final Function<TgApi.Reply, CompletionStage<Void>> onSent = reply -> {
             if (reply.ok) {
                 user.lastMessageId = reply.messageId;
-                fs.updateLastMessageId(reply.messageId, user.id);
+                users.saveMessageId(user.id, reply.messageId);
             } else {
-                if (!reply.desc.contains("bot can't initiate conversation"))
+                if (!reply.unreachable && !reply.desc.contains("bot can't initiate conversation"))
                     sendContent(null, "Cant send appropriate message. Error from Telegram: " + reply.desc + "\n\nTry use command /reset", null, null, user, 0);
                 logger.error("Cant send content: " + reply.desc);
             }
+
+            return CompletableFuture.completedFuture(null);
         };
 
+        final CompletableFuture<Void> applied;
+
         if (user.lastMessageId > 0) {
-            final boolean sameKbd = Objects.equals(ks, user.lastKeyboard);
-            final boolean sameFile = Objects.equals(file == null ? "" : file.getRefId(), user.lastRefId);
-            final boolean sameText = Objects.equals(body, user.lastText);
+            final boolean sameKbd = kbdFp == user.lastKbdFp;
+            final boolean sameFile = refFp == user.lastRefFp;
+            final boolean sameText = textFp == user.lastTextFp;
 
             if (sameFile && sameText && sameKbd)
-                return;
+                return CompletableFuture.completedFuture(null);
 
-            final Consumer<Reply> editSuccessConsumer = reply -> {
-                if (!reply.ok) {
-                    deleteMessage(user.lastMessageId, user.id);
-                    user.lastMessageId = 0;
-                    fs.updateLastMessageId(0, user.id);
-                    if (cnt < 2)
-                        sendContent(file, body, format, keyboard, user, cnt + 1);
+            final Function<Reply, CompletionStage<Void>> onEdited = reply -> {
+                if (reply.ok)
+                    return CompletableFuture.completedFuture(null);
+
+                if (reply.unreachable) { // the message is still there, deleting and resending would only add load
+                    user.lastTextFp = 0;
+                    user.lastKbdFp = 0;
+                    return CompletableFuture.completedFuture(null);
                 }
+
+                deleteMessage(user.lastMessageId, user.id);
+                user.lastMessageId = 0;
+                users.saveMessageId(user.id, 0);
+
+                if (cnt >= 2)
+                    return CompletableFuture.completedFuture(null);
+
+                // the user's next update waits for the resend: it would send a window of its own otherwise
+                final CompletableFuture<Void> resent = transport.retryLater(cnt, () -> sendContent(file, body, format, keyboard, user, cnt + 1));
+                if (resent != null)
+                    return resent;
+
+                logger.warn("Retry budget is exhausted, message for " + user.id + " is not resent");
+                return CompletableFuture.completedFuture(null);
             };
 
             if (file != null) {
                 if (sameFile) {
                     if (sameText)
-                        CompletableFuture.runAsync(() ->
-                                editKeyboard(keyboard == null ? Json.newObject() : keyboard.toJson(), user.id, user.lastMessageId)
-                                        .thenAccept(editSuccessConsumer)
-                                        .exceptionally(fuckup));
+                        applied = call(() -> editKeyboard(keyboard == null ? emptyKbd : keyboard, user.id, user.lastMessageId), onEdited, fuckup);
                     else
-                        CompletableFuture.runAsync(() ->
-                                editCaption(body, format, keyboard == null ? null : keyboard.toJson(), user.id, user.lastMessageId)
-                                        .thenAccept(editSuccessConsumer)
-                                        .exceptionally(fuckup));
+                        applied = call(() -> editCaption(body, format, keyboard, user.id, user.lastMessageId), onEdited, fuckup);
                 } else {
-                    if (!notNull(user.lastRefId).isEmpty())
-                        CompletableFuture.runAsync(() ->
-                                editMedia(file.getRefId(), file.getType(), keyboard == null ? null : keyboard.toJson(), user.id, user.lastMessageId)
-                                        .thenAccept(editSuccessConsumer)
-                                        .exceptionally(fuckup));
+                    if (user.lastRefFp != 0)
+                        applied = call(() -> editMedia(file.getRefId(), file.getType(), keyboard, user.id, user.lastMessageId), onEdited, fuckup);
                     else
-                        CompletableFuture.runAsync(() ->
-                                sendMedia(file.getRefId(), file.getType(), body, format, keyboard == null ? null : keyboard.toJson(), user.id)
-                                        .thenAccept(sendSuccessConsumer)
-                                        .exceptionally(fuckup));
+                        applied = call(() -> sendMedia(file.getRefId(), file.getType(), body, format, keyboard, user.id), onSent, fuckup);
                 }
             } else {
                 if (!sameKbd && sameText)
-                    CompletableFuture.runAsync(() ->
-                            editKeyboard(keyboard == null ? Json.newObject() : keyboard.toJson(), user.id, user.lastMessageId)
-                                    .thenAccept(editSuccessConsumer)
-                                    .exceptionally(fuckup));
+                    applied = call(() -> editKeyboard(keyboard == null ? emptyKbd : keyboard, user.id, user.lastMessageId), onEdited, fuckup);
                 else
-                    CompletableFuture.runAsync(() ->
-                            editText(body, format, keyboard == null ? null : keyboard.toJson(), user.id, user.lastMessageId)
-                                    .thenAccept(editSuccessConsumer)
-                                    .exceptionally(fuckup));
+                    applied = call(() -> editText(body, format, keyboard, user.id, user.lastMessageId), onEdited, fuckup);
             }
         } else {
             if (file != null)
-                CompletableFuture.runAsync(() ->
-                        sendMedia(file.getRefId(), file.getType(), body, format, keyboard == null ? null : keyboard.toJson(), user.id)
-                                .thenAccept(sendSuccessConsumer)
-                                .exceptionally(fuckup));
+                applied = call(() -> sendMedia(file.getRefId(), file.getType(), body, format, keyboard, user.id), onSent, fuckup);
             else
-                CompletableFuture.runAsync(() ->
-                        sendText(body, format, keyboard == null ? null : keyboard.toJson(), user.id)
-                                .thenAccept(sendSuccessConsumer)
-                                .exceptionally(fuckup));
+                applied = call(() -> sendText(body, format, keyboard, user.id), onSent, fuckup);
         }
 
-        user.lastRefId = (file == null ? "" : file.getRefId());
-        user.lastKeyboard = ks;
-        user.lastText = body;
+        user.lastRefFp = refFp;
+        user.lastKbdFp = kbdFp;
+        user.lastTextFp = textFp;
+
+        return applied;
     }
 
-    private boolean diffState(final TFile file, final String lastRefId) {
-        return (file != null && notNull(lastRefId).isEmpty()) || (!notNull(lastRefId).isEmpty() && file == null);
+    // made on the dispatch executor, the reply is handled on the store one; completed once it is handled, with what
+    // handling it started
+    private CompletableFuture<Void> call(final Supplier<CompletionStage<Reply>> call, final Function<Reply, CompletionStage<Void>> onReply, final Function<Throwable, Void> fuckup) {
+        return CompletableFuture.supplyAsync(call, dispatch)
+                .thenCompose(Function.identity())
+                .thenComposeAsync(onReply, store)
+                .exceptionally(fuckup);
+    }
+
+    private boolean diffState(final TFile file, final long lastRefFp) {
+        return (file != null && lastRefFp == 0) || (lastRefFp != 0 && file == null);
+    }
+
+    public void deleteMessages(final List<Long> messageIds, final long userId) {
+        if (messageIds.size() == 1)
+            deleteMessage(messageIds.get(0), userId);
+
+        if (messageIds.size() < 2)
+            return;
+
+        for (int i = 0; i < messageIds.size(); i += 100) {
+            final byte[] body = new JsonBody()
+                    .put("chat_id", userId)
+                    .putArray("message_ids", messageIds.subList(i, Math.min(i + 100, messageIds.size())))
+                    .bytes();
+
+            CompletableFuture.runAsync(() -> limiter.submit(0, () -> transport.post("deleteMessages", body)), dispatch);
+        }
     }
 
     public void deleteMessage(final long messageId, final long userId) {
         if (messageId > 0)
-            CompletableFuture.runAsync(() -> ws.url(apiUrl + "deleteMessage").setContentType("application/json").post("{\"chat_id\":" + userId + ",\"message_id\":" + messageId + "}"));
+            CompletableFuture.runAsync(() -> limiter.submit(0, () -> transport.post("deleteMessage", new JsonBody().put("chat_id", userId).put("message_id", messageId).bytes())), dispatch);
     }
 
-    public CompletionStage<Reply> sendText(final String text, final String format, final JsonNode replyMarkup, final long userId) {
-        final ObjectNode node = Json.newObject();
+    public CompletionStage<Reply> sendText(final String text, final String format, final Keyboard replyMarkup, final long userId) {
+        final JsonBody body = new JsonBody();
 
-        node.put("chat_id", userId);
-        node.put("text", text);
-        node.put("disable_web_page_preview", true);
+        body.put("chat_id", userId);
+        body.put("text", text);
+        body.put("disable_web_page_preview", true);
 
         if (format != null)
-            node.put("parse_mode", format);
+            body.put("parse_mode", format);
         if (replyMarkup != null)
-            node.set("reply_markup", replyMarkup);
+            body.putRaw("reply_markup", replyMarkup.encoded());
 
-        return doCall(node, "sendMessage");
+        return doCall(body.bytes(), "sendMessage", userId);
     }
 
-    public CompletionStage<Reply> editText(final String text, final String format, final JsonNode keyboard, final long userId, final long updateMessageId) {
-        final ObjectNode node = Json.newObject();
-        node.put("chat_id", userId);
-        node.put("text", text);
-        node.put("message_id", updateMessageId);
-        node.put("disable_web_page_preview", true);
+    public CompletionStage<Reply> editText(final String text, final String format, final Keyboard keyboard, final long userId, final long updateMessageId) {
+        final JsonBody body = new JsonBody();
+        body.put("chat_id", userId);
+        body.put("text", text);
+        body.put("message_id", updateMessageId);
+        body.put("disable_web_page_preview", true);
         if (format != null)
-            node.put("parse_mode", format);
+            body.put("parse_mode", format);
         if (keyboard != null)
-            node.set("reply_markup", keyboard);
-
-        return ws.url(apiUrl + "editMessageText")
-                .post(node)
-                .thenApply(wsr -> {
-                    final JsonNode j = wsr.asJson();
+            body.putRaw("reply_markup", keyboard.encoded());
 
-                    if (j.get("ok").asBoolean())
-                        return new Reply(updateMessageId);
-
-                    return new Reply(j.get("description").asText());
-                })
-                .exceptionally(e -> {
-                    logger.error(e.getMessage(), e);
-                    return new Reply(e.getMessage());
-                });
+        return doCall(body.bytes(), "editMessageText", userId).thenApply(reply -> reply.ok ? new Reply(updateMessageId) : reply);
     }
 
-    public void sendCallbackAnswer(final String text, final long callbackId, final boolean alert, final int cacheTime) {
-        final ObjectNode node = Json.newObject();
-        node.put("callback_query_id", callbackId);
-        node.put("text", text);
-        node.put("show_alert", alert);
-        node.put("cache_time", cacheTime);
+    public void sendCallbackAnswer(final String text, final String callbackId, final boolean alert, final int cacheTime) {
+        final byte[] body = new JsonBody()
+                .put("callback_query_id", callbackId)
+                .put("text", text)
+                .put("show_alert", alert)
+                .put("cache_time", cacheTime)
+                .bytes();
 
-        CompletableFuture.runAsync(() -> ws.url(apiUrl + "answerCallbackQuery").post(node));
+        // not paced: answers are not messages and the user waits for them
+        CompletableFuture.runAsync(() -> transport.post("answerCallbackQuery", body), dispatch);
     }
 
-    public CompletionStage<Reply> editKeyboard(final JsonNode keyboard, final long userId, final long messageId) {
-        final ObjectNode node = Json.newObject();
+    public CompletionStage<Reply> editKeyboard(final Keyboard keyboard, final long userId, final long messageId) {
+        final JsonBody body = new JsonBody();
 
-        node.put("chat_id", userId);
-        node.put("message_id", messageId);
-        node.set("reply_markup", keyboard);
+        body.put("chat_id", userId);
+        body.put("message_id", messageId);
+        body.putRaw("reply_markup", keyboard.encoded());
 
-        return doCall(node, "editMessageReplyMarkup");
+        return doCall(body.bytes(), "editMessageReplyMarkup", userId);
     }
 
-    public CompletionStage<Reply> editCaption(final String caption, final String format, final JsonNode keyboard, final long userId, final long messageId) {
-        final ObjectNode node = Json.newObject();
+    public CompletionStage<Reply> editCaption(final String caption, final String format, final Keyboard keyboard, final long userId, final long messageId) {
+        final JsonBody body = new JsonBody();
 
-        node.put("chat_id", userId);
-        node.put("message_id", messageId);
-        node.put("caption", caption);
+        body.put("chat_id", userId);
+        body.put("message_id", messageId);
+        body.put("caption", caption);
 
         if (format != null)
-            node.put("parse_mode", format);
+            body.put("parse_mode", format);
         if (keyboard != null)
-            node.set("reply_markup", keyboard);
+            body.putRaw("reply_markup", keyboard.encoded());
 
-        return doCall(node, "editMessageCaption");
+        return doCall(body.bytes(), "editMessageCaption", userId);
     }
 
-    public CompletionStage<Reply> editMedia(final String refId, final ContentType type, final JsonNode keyboard, final long userId, final long messageId) {
+    public CompletionStage<Reply> editMedia(final String refId, final ContentType type, final Keyboard keyboard, final long userId, final long messageId) {
         if (type == ContentType.DIR || type == ContentType.LABEL)
             return CompletableFuture.completedFuture(new Reply(type.name()));
 
-        final ObjectNode node = Json.newObject();
-        node.put("chat_id", userId);
-        node.put("message_id", messageId);
-        final ObjectNode media = node.with("media");
-        media.put("type", type.getParamName());
-        media.put("media", refId);
+        final JsonBody body = new JsonBody();
+        body.put("chat_id", userId);
+        body.put("message_id", messageId);
+        body.object("media")
+                .put("type", type.getParamName())
+                .put("media", refId)
+                .end();
         if (keyboard != null)
-            node.set("reply_markup", keyboard);
+            body.putRaw("reply_markup", keyboard.encoded());
 
-        return doCall(node, "editMessageMedia");
+        return doCall(body.bytes(), "editMessageMedia", userId);
     }
 
-    public CompletionStage<Reply> sendMedia(final String refId, final ContentType type, final String caption, final String format, final JsonNode keyboard, final long userId) {
+    public CompletionStage<Reply> sendMedia(final String refId, final ContentType type, final String caption, final String format, final Keyboard keyboard, final long userId) {
         if (type == ContentType.DIR || type == ContentType.LABEL)
             return CompletableFuture.completedFuture(new Reply(type.name()));
 
-        final ObjectNode node = Json.newObject();
-        node.put("chat_id", userId);
-        if (type == ContentType.CONTACT) {
-            final JsonNode c = Json.parse(refId);
-            c.fieldNames().forEachRemaining(s -> node.set(s, c.get(s)));
-        } else
-            node.put(type.getParamName(), refId);
+        final JsonBody body = new JsonBody();
+        body.put("chat_id", userId);
+        if (type == ContentType.CONTACT)
+            body.putAll(refId);
+        else
+            body.put(type.getParamName(), refId);
         if (!isEmpty(caption)) {
-            node.put("caption", caption);
+            body.put("caption", caption);
 
             if (!isEmpty(format))
-                node.put("parse_mode", format);
+                body.put("parse_mode", format);
         }
         if (keyboard != null)
-            node.set("reply_markup", keyboard);
+            body.putRaw("reply_markup", keyboard.encoded());
 
-        return doCall(node, type.getUrlPath());
+        return doCall(body.bytes(), type.getUrlPath(), userId);
     }
 
-    private CompletionStage<Reply> doCall(final JsonNode node, final String partialUrl) {
-        return ws.url(apiUrl + partialUrl)
-                .post(node)
+    private CompletionStage<Reply> doCall(final byte[] body, final String partialUrl, final long chatId) {
+        if (!transport.available(partialUrl))
+            return CompletableFuture.completedFuture(new Reply("Circuit of " + partialUrl + " is open", true));
+
+        final Supplier<CompletionStage<WSResponse>> call = () -> transport.post(partialUrl, body);
+
+        return limiter.submit(chatId, call)
                 .thenApply(wsr -> {
-                    final JsonNode j = wsr.asJson();
+                    if (wsr.getStatus() >= 500)
+                        return new Reply("Telegram answered " + wsr.getStatus(), true);
+
+                    final ReplyDecoder.Result r;
+                    try {
+                        r = ReplyDecoder.decode(wsr.getBodyAsBytes().toArray());
+                    } catch (final IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
 
-                    if (j.get("ok").asBoolean())
-                        return new Reply(j.has("result") && j.get("result").has("message_id")
-                                ? j.get("result").get("message_id").asLong()
-                                : 0);
+                    if (r.ok)
+                        return new Reply(r.messageId);
 
-                    logger.debug("On request [" + apiUrl + partialUrl + "]:\n" + node.toString() + "\ngot response:\n" + j.toString());
+                    if (logger.isDebugEnabled())
+                        logger.debug("On request [" + partialUrl + "]:\n" + new String(body, StandardCharsets.UTF_8) + "\ngot response: " + r.description);
 
-                    return new Reply(j.get("description").asText());
+                    return new Reply(r.description);
                 })
                 .exceptionally(e -> {
-                    logger.error("On request [" + apiUrl + partialUrl + "]:\n" + node.toString() + "\ngot error: " + e.getMessage(), e);
-                    return new Reply(e.getMessage());
+                    if (e.getCause() instanceof TgTransport.CircuitOpen)
+                        logger.debug("On request [" + partialUrl + "]: " + e.getCause().getMessage());
+                    else
+                        logger.error("On request [" + partialUrl + "]:\n" + new String(body, StandardCharsets.UTF_8) + "\ngot error: " + e.getMessage(), e);
+                    return new Reply(e.getMessage(), true);
                 });
     }
 
@@ -317,23 +370,43 @@ public class TgApi {
         public final long messageId;
         public final long indate;
         public final String desc;
+        // no answer from telegram at all: call failed, 5xx or the method's circuit is open
+        public final boolean unreachable;
 
         public Reply(final long messageId) {
             ok = true;
             this.messageId = messageId;
             indate = System.currentTimeMillis();
             desc = "";
+            unreachable = false;
         }
 
         public Reply(final String desc) {
+            this(desc, false);
+        }
+
+        public Reply(final String desc, final boolean unreachable) {
             ok = false;
             this.desc = desc;
+            this.unreachable = unreachable;
             messageId = indate = 0;
         }
     }
 
     public static class Keyboard {
+        private static final ThreadLocal<StringBuilder> buffer = ThreadLocal.withInitial(() -> new StringBuilder(512));
+        private static final int encodingsLimit = 4096;
+        // encoded keyboards by their rows of buttons, the least recently used are dropped beyond the limit: listings
+        // come and go, the common ones stay; access ordered, guarded by itself
+        private static final LinkedHashMap<List<List<Button>>, String> encodings = new LinkedHashMap<List<List<Button>>, String>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<List<List<Button>>, String> eldest) {
+                return size() > encodingsLimit;
+            }
+        };
+
         private final List<List<Button>> buttons = new ArrayList<>(1);
+        private volatile String encoded;
 
         public Keyboard() {
             buttons.add(new ArrayList<>(1));
@@ -341,6 +414,7 @@ public class TgApi {
 
         public Keyboard newLine() {
             buttons.add(new ArrayList<>(0));
+            encoded = null;
             return this;
         }
 
@@ -357,26 +431,67 @@ public class TgApi {
                 buttons.add(new ArrayList<>(1));
 
             buttons.get(buttons.size() - 1).add(button);
+            encoded = null;
         }
 
-        public JsonNode toJson() {
-            final ObjectNode node = Json.newObject();
+        /**
+         * @return reply_markup json, encoded once per keyboard structure from the buttons' pre-encoded fragments; the
+         * same text jackson would write for the tree of it
+         */
+        public String encoded() {
+            String e = encoded;
 
-            buttons.stream().filter(r -> !isEmpty(r)).forEach(row -> {
-                final ArrayNode rowNode = node.withArray("inline_keyboard").addArray();
-                row.forEach(b -> {
-                    final ObjectNode bNode = rowNode.addObject();
-                    bNode.put("text", b.text);
-                    bNode.put("callback_data", b.data);
-                });
-            });
+            if (e != null)
+                return e;
+
+            synchronized (encodings) {
+                e = encodings.get(buttons);
+            }
+
+            if (e == null) {
+                e = encode();
+
+                final List<List<Button>> key = new ArrayList<>(buttons.size());
+                buttons.forEach(row -> key.add(Collections.unmodifiableList(new ArrayList<>(row))));
+
+                synchronized (encodings) {
+                    encodings.put(Collections.unmodifiableList(key), e);
+                }
+            }
 
-            return node;
+            return encoded = e;
+        }
+
+        private String encode() {
+            final StringBuilder sb = buffer.get();
+            sb.setLength(0);
+            sb.append('{');
+
+            boolean firstRow = true;
+            for (final List<Button> row : buttons) {
+                if (isEmpty(row))
+                    continue;
+
+                sb.append(firstRow ? "\"inline_keyboard\":[[" : ",[");
+                firstRow = false;
+
+                for (int i = 0; i < row.size(); i++) {
+                    if (i > 0)
+                        sb.append(',');
+                    sb.append(row.get(i).json);
+                }
+
+                sb.append(']');
+            }
+
+            return sb.append(firstRow ? "}" : "]}").toString();
         }
     }
 
     public static class Button {
         private final String text, data;
+        // {"text":..,"callback_data":..} as is in the keyboard's json
+        private final String json;
 
         public Button(final String text, final CommandType data) {
             this(text, data.toString());
@@ -385,6 +500,21 @@ public class TgApi {
         public Button(final String text, final String data) {
             this.text = text;
             this.data = data;
+
+            final JsonStringEncoder enc = JsonStringEncoder.getInstance();
+            json = "{\"text\":" + (text == null ? "null" : "\"" + new String(enc.quoteAsString(text)) + "\"")
+                    + ",\"callback_data\":" + (data == null ? "null" : "\"" + new String(enc.quoteAsString(data)) + "\"") + "}";
+        }
+
+        // buttons are equal by what they encode to: keyboards of equal buttons share their encoding
+        @Override
+        public boolean equals(final Object o) {
+            return this == o || o instanceof Button && json.equals(((Button) o).json);
+        }
+
+        @Override
+        public int hashCode() {
+            return json.hashCode();
         }
     }
 }
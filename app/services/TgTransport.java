@@ -0,0 +1,266 @@
+package services;
+
+import akka.util.ByteString;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.typesafe.config.Config;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+import play.libs.ws.InMemoryBodyWritable;
+import play.libs.ws.WSClient;
+import play.libs.ws.WSRequest;
+import play.libs.ws.WSResponse;
+
+import utils.NamedThreadFactory;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * The only way out to the bot api: method urls are resolved once, connections are kept alive and pooled for the one
+ * upstream host (play.ws.ahc in application.conf), every call is timed and counted per bot api method.
+ * <p>
+ * Each method has its circuit breaker: after a run of failures (no reply or 5xx) calls of the method fail right away for
+ * a jittered, growing pause, then one probe call decides whether it closes. Our own retries draw on a shared budget
+ * which only successful calls refill, so retries cannot multiply the load while telegram struggles.
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+@Singleton
+public class TgTransport {
+    private final WSClient ws;
+    private final String apiUrl;
+
+    private final int failures;
+    private final long openMs, maxOpenMs, backoffMs;
+    private final double budgetRatio, budgetMax;
+    private double budget; // guarded by this
+
+    private final ConcurrentHashMap<String, Method> methods = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService retries = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("retry"));
+    private final LongAdder retried = new LongAdder(), retriesDenied = new LongAdder();
+
+    @Inject
+    public TgTransport(final Config config, final WSClient ws, final ApplicationLifecycle lifecycle) {
+        this.ws = ws;
+        apiUrl = config.getString("service.bot.api_url");
+        failures = config.getInt("service.bot.breaker.failures");
+        openMs = config.getDuration("service.bot.breaker.open", TimeUnit.MILLISECONDS);
+        maxOpenMs = config.getDuration("service.bot.breaker.max_open", TimeUnit.MILLISECONDS);
+        budgetRatio = config.getDouble("service.bot.retry.budget_ratio");
+        budgetMax = config.getDouble("service.bot.retry.budget_max");
+        backoffMs = config.getDuration("service.bot.retry.backoff", TimeUnit.MILLISECONDS);
+        budget = budgetMax;
+
+        lifecycle.addStopHook(() -> {
+            retries.shutdown();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * @param json utf-8 encoded request body
+     */
+    public CompletionStage<WSResponse> post(final String method, final byte[] json) {
+        final Method m = method(method);
+        return m.allow() ? m.timed(m.request().post(new InMemoryBodyWritable(ByteString.fromArray(json), "application/json"))) : m.rejection();
+    }
+
+    /**
+     * @return false if calls of the method are failing fast now, there is no point to queue one; once the pause is over
+     * the next call goes out as the probe
+     */
+    public boolean available(final String method) {
+        return method(method).available();
+    }
+
+    /**
+     * Runs our own retry of a failed call after a jittered exponential backoff, if the retry budget allows it.
+     *
+     * @param attempt 0 for the first retry
+     * @return stage of the retry's own stage, null if the retry is denied
+     */
+    public <T> CompletableFuture<T> retryLater(final int attempt, final Supplier<? extends CompletionStage<T>> retry) {
+        synchronized (this) {
+            if (budget < 1) {
+                retriesDenied.increment();
+                return null;
+            }
+
+            budget -= 1;
+        }
+
+        retried.increment();
+        final CompletableFuture<Void> due = new CompletableFuture<>();
+        retries.schedule(() -> due.complete(null), ThreadLocalRandom.current().nextLong(1 + (backoffMs << Math.min(attempt, 10))), TimeUnit.MILLISECONDS);
+
+        return due.thenCompose(ignore -> retry.get());
+    }
+
+    public JsonNode stats() {
+        final ObjectNode node = Json.newObject();
+
+        synchronized (this) {
+            node.put("retryBudget", budget);
+        }
+        node.put("retried", retried.sum());
+        node.put("retriesDenied", retriesDenied.sum());
+
+        final ObjectNode ms = node.putObject("methods");
+        methods.forEach((name, m) -> ms.set(name, m.stats()));
+
+        return node;
+    }
+
+    private synchronized void deposit() {
+        budget = Math.min(budgetMax, budget + budgetRatio);
+    }
+
+    private Method method(final String name) {
+        final Method m = methods.get(name);
+
+        return m != null ? m : methods.computeIfAbsent(name, Method::new);
+    }
+
+    private final class Method {
+        // upper bounds, ms: 1, 2, 4 .. 16384 and the rest, reported as -1
+        private static final int BUCKETS = 16;
+
+        private final String name, url;
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+        private final LongAdder calls = new LongAdder(), failed = new LongAdder(), rejected = new LongAdder(), nanos = new LongAdder(),
+                failedFast = new LongAdder(), opened = new LongAdder();
+
+        // breaker, guarded by this
+        private volatile State state = State.CLOSED;
+        private int failedInRow, trips;
+        private long openUntil;
+
+        private Method(final String name) {
+            this.name = name;
+            url = apiUrl + name;
+        }
+
+        private synchronized boolean allow() {
+            switch (state) {
+                case CLOSED:
+                    return true;
+                case OPEN:
+                    if (System.currentTimeMillis() < openUntil)
+                        break;
+                    state = State.HALF_OPEN; // this call is the probe
+                    return true;
+                default: // the probe is still running
+                    break;
+            }
+
+            failedFast.increment();
+            return false;
+        }
+
+        // the same as allow() would decide, without taking the probe: it is taken by the call when it is made
+        private synchronized boolean available() {
+            return state == State.CLOSED || state == State.OPEN && System.currentTimeMillis() >= openUntil;
+        }
+
+        private synchronized void onResult(final boolean ok) {
+            if (ok) {
+                failedInRow = trips = 0;
+                state = State.CLOSED;
+                return;
+            }
+
+            failedInRow++;
+            if (state == State.HALF_OPEN || failedInRow >= failures) {
+                final long pause = Math.min(maxOpenMs, openMs << Math.min(trips++, 10));
+
+                state = State.OPEN;
+                openUntil = System.currentTimeMillis() + pause / 2 + ThreadLocalRandom.current().nextLong(pause / 2 + 1);
+                opened.increment();
+                failedInRow = 0;
+            }
+        }
+
+        private CompletionStage<WSResponse> rejection() {
+            final CompletableFuture<WSResponse> f = new CompletableFuture<>();
+            f.completeExceptionally(new CircuitOpen(name));
+            return f;
+        }
+
+        private WSRequest request() {
+            return ws.url(url);
+        }
+
+        private CompletionStage<WSResponse> timed(final CompletionStage<WSResponse> call) {
+            final long start = System.nanoTime();
+
+            return call.whenComplete((wsr, e) -> {
+                final long took = System.nanoTime() - start;
+                final long ms = took / 1_000_000;
+
+                calls.increment();
+                nanos.add(took);
+                histogram.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(ms)));
+
+                if (e != null)
+                    failed.increment();
+                else if (wsr.getStatus() >= 400)
+                    rejected.increment();
+
+                final boolean ok = e == null && wsr.getStatus() < 500;
+                onResult(ok);
+                if (ok)
+                    deposit();
+            });
+        }
+
+        private JsonNode stats() {
+            final ObjectNode node = Json.newObject();
+            final long n = calls.sum();
+
+            node.put("state", state.name());
+            node.put("opened", opened.sum());
+            node.put("failedFast", failedFast.sum());
+            node.put("calls", n);
+            node.put("failed", failed.sum());
+            node.put("rejected", rejected.sum());
+            node.put("errorRate", n == 0 ? 0 : (failed.sum() + rejected.sum()) / (double) n);
+            node.put("avgMs", n == 0 ? 0 : nanos.sum() / n / 1_000_000d);
+            node.put("p50Ms", percentile(n, 0.5));
+            node.put("p99Ms", percentile(n, 0.99));
+
+            return node;
+        }
+
+        // upper bound of the bucket the percentile falls in
+        private long percentile(final long total, final double p) {
+            final long rank = (long) Math.ceil(total * p);
+            long seen = 0;
+
+            for (int i = 0; i < BUCKETS; i++)
+                if ((seen += histogram.get(i)) >= rank && rank > 0)
+                    return i == BUCKETS - 1 ? -1 : 1L << i;
+
+            return 0;
+        }
+    }
+
+    private enum State {CLOSED, OPEN, HALF_OPEN}
+
+    /**
+     * Call failed fast, its method's breaker is open.
+     */
+    public static final class CircuitOpen extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private CircuitOpen(final String method) {
+            super("Circuit of " + method + " is open");
+        }
+    }
+}
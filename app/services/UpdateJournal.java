@@ -0,0 +1,489 @@
+package services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.typesafe.config.Config;
+import model.ContentType;
+import model.Update;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of accepted updates in memory mapped segment files. An update is appended when it is accepted,
+ * acknowledged only after its record is forced to disk and marked done when its handling is finished; records still
+ * pending on start are replayed. One fsync covers every record appended while the previous one was running (group
+ * commit). Done marks themselves are not forced, so after a crash an update may be handled twice, never lost.
+ * <p>
+ * Record: int payload length, int crc32 of the payload, byte state, payload. Zero length is the end of a segment.
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+@Singleton
+public class UpdateJournal {
+    private static final Logger.ALogger logger = Logger.of(UpdateJournal.class);
+
+    private static final int HEADER = 9;
+    private static final byte PENDING = 0, DONE = 1;
+    private static final String SUFFIX = ".journal";
+
+    private final boolean enabled;
+    private final Path dir;
+    private final int segmentSize;
+
+    private final Map<Long, Segment> segments = new HashMap<>(); // guarded by this
+    private final Set<Segment> unforced = new HashSet<>(); // guarded by this
+    private final List<Waiter> waiters = new ArrayList<>(); // guarded by this
+    private final List<Recovered> recovered = new ArrayList<>();
+    private Segment current; // guarded by this
+    private long appended; // guarded by this
+
+    private final LongAdder done = new LongAdder(), commits = new LongAdder(), committed = new LongAdder();
+    private final AtomicInteger pending = new AtomicInteger(0);
+
+    private volatile boolean running;
+
+    @Inject
+    public UpdateJournal(final Config config, final ApplicationLifecycle lifecycle) throws IOException {
+        enabled = config.getBoolean("service.journal.enabled");
+        dir = Paths.get(config.getString("service.journal.dir"));
+        segmentSize = (int) Math.min(Integer.MAX_VALUE, config.getBytes("service.journal.segment_size"));
+
+        if (!enabled)
+            return;
+
+        Files.createDirectories(dir);
+        long next = recover();
+        current = open(next);
+
+        running = true;
+        final Thread committer = new Thread(this::commitLoop, "journal");
+        committer.setDaemon(true);
+        committer.start();
+
+        lifecycle.addStopHook(() -> {
+            synchronized (this) {
+                running = false;
+                notifyAll();
+            }
+            drain();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * Records the update, not durable until {@link #flushed()} completes.
+     *
+     * @return the record's handle to mark it done with, null if the journal is off
+     */
+    public Entry append(final Update update) {
+        if (!enabled)
+            return null;
+
+        final byte[] payload = encode(update);
+        final CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+
+        synchronized (this) {
+            if (current.position + HEADER + payload.length + 4 > segmentSize) {
+                unforced.add(current);
+                current.sealed = true;
+                final Segment sealed = current;
+                try {
+                    current = open(current.id + 1);
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                retireIfDone(sealed);
+            }
+
+            final Segment s = current;
+            final int offset = s.position;
+
+            s.buffer.position(offset + 4);
+            s.buffer.putInt((int) crc.getValue());
+            s.buffer.put(PENDING);
+            s.buffer.put(payload);
+            s.buffer.putInt(offset, payload.length); // length last: a record is visible only when it is whole
+            s.position = offset + HEADER + payload.length;
+            s.live++;
+
+            appended++;
+            pending.incrementAndGet();
+
+            return new Entry(s, offset);
+        }
+    }
+
+    /**
+     * @return stage completed when everything appended so far is on disk
+     */
+    public CompletionStage<Void> flushed() {
+        if (!enabled)
+            return CompletableFuture.completedFuture(null);
+
+        final Waiter w;
+
+        synchronized (this) {
+            w = new Waiter(appended);
+            waiters.add(w);
+            notifyAll();
+        }
+
+        if (!running) // stopped, nothing else would force it
+            drain();
+
+        return w.future;
+    }
+
+    /**
+     * Marks the update as handled, it will not be replayed.
+     */
+    public void done(final Entry entry) {
+        if (entry == null)
+            return;
+
+        synchronized (this) {
+            if (entry.done)
+                return;
+
+            entry.done = true;
+            entry.segment.buffer.put(entry.offset + 8, DONE);
+            entry.segment.live--;
+            retireIfDone(entry.segment);
+        }
+
+        pending.decrementAndGet();
+        done.increment();
+    }
+
+    /**
+     * Records left pending by the previous run, in arrival order. Handed out once.
+     */
+    public synchronized List<Recovered> recovered() {
+        final List<Recovered> list = new ArrayList<>(recovered);
+        recovered.clear();
+        return list;
+    }
+
+    public JsonNode stats() {
+        final ObjectNode node = Json.newObject();
+
+        node.put("enabled", enabled);
+        synchronized (this) {
+            node.put("segments", segments.size());
+            node.put("appended", appended);
+        }
+        node.put("pending", pending.get());
+        node.put("done", done.sum());
+        node.put("commits", commits.sum());
+        node.put("avgCommitBatch", commits.sum() == 0 ? 0 : committed.sum() / (double) commits.sum());
+
+        return node;
+    }
+
+    private void commitLoop() {
+        long forcedUpTo = 0;
+
+        while (running)
+            try {
+                final long upTo;
+                final List<Segment> dirty;
+
+                synchronized (this) {
+                    while (running && waiters.isEmpty())
+                        wait();
+
+                    upTo = appended;
+                    dirty = new ArrayList<>(unforced);
+                    unforced.clear();
+                    dirty.add(current);
+                }
+
+                // appends go on while forcing: they all are the next batch
+                for (final Segment s : dirty)
+                    s.buffer.force();
+
+                final List<Waiter> ready = new ArrayList<>();
+                synchronized (this) {
+                    for (final Iterator<Waiter> it = waiters.iterator(); it.hasNext(); ) {
+                        final Waiter w = it.next();
+
+                        if (w.upTo <= upTo) {
+                            ready.add(w);
+                            it.remove();
+                        }
+                    }
+                }
+
+                commits.increment();
+                committed.add(upTo - forcedUpTo);
+                forcedUpTo = upTo;
+                ready.forEach(w -> w.future.complete(null));
+            } catch (final InterruptedException e) {
+                break;
+            } catch (final Exception e) {
+                logger.error("Journal commit failed: " + e.getMessage(), e);
+
+                final List<Waiter> failed;
+                synchronized (this) {
+                    failed = new ArrayList<>(waiters);
+                    waiters.clear();
+                }
+                failed.forEach(w -> w.future.completeExceptionally(e));
+            }
+    }
+
+    // once the committer is stopped: forces whatever is appended and lets every waiter go
+    private void drain() {
+        final List<Waiter> left;
+        Exception failure = null;
+
+        synchronized (this) {
+            left = new ArrayList<>(waiters);
+            waiters.clear();
+
+            try {
+                for (final Segment s : unforced)
+                    s.buffer.force();
+                unforced.clear();
+                current.buffer.force();
+            } catch (final Exception e) {
+                logger.error("Journal final commit failed: " + e.getMessage(), e);
+                failure = e;
+            }
+        }
+
+        for (final Waiter w : left)
+            if (failure == null)
+                w.future.complete(null);
+            else
+                w.future.completeExceptionally(failure);
+    }
+
+    // guarded by this
+    private void retireIfDone(final Segment s) {
+        if (!s.sealed || s.live > 0)
+            return;
+
+        segments.remove(s.id);
+        unforced.remove(s);
+
+        try {
+            Files.deleteIfExists(s.file);
+        } catch (final IOException e) {
+            logger.error("Cant drop journal segment " + s.file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private Segment open(final long id) throws IOException {
+        final Path file = dir.resolve(String.format("%016d", id) + SUFFIX);
+
+        try (final FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final Segment s = new Segment(id, file, ch.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+            segments.put(id, s);
+            return s;
+        }
+    }
+
+    /**
+     * Scans segments left by the previous run, collects pending records of them and drops the fully done ones.
+     *
+     * @return id for the next segment
+     */
+    private long recover() throws IOException {
+        final List<Path> files = new ArrayList<>();
+
+        try (final DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            ds.forEach(files::add);
+        }
+
+        Collections.sort(files);
+        long next = 0;
+
+        for (final Path file : files) {
+            final String name = file.getFileName().toString();
+            final long id = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+            next = Math.max(next, id + 1);
+
+            final Segment s;
+            try (final FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                s = new Segment(id, file, ch.map(FileChannel.MapMode.READ_WRITE, 0, ch.size()));
+            }
+
+            s.sealed = true;
+            segments.put(id, s);
+
+            final int limit = s.buffer.capacity();
+            int pos = 0;
+
+            while (pos + HEADER <= limit) {
+                final int length = s.buffer.getInt(pos);
+
+                if (length <= 0 || pos + HEADER + length > limit)
+                    break;
+
+                final byte[] payload = new byte[length];
+                s.buffer.position(pos + HEADER);
+                s.buffer.get(payload);
+
+                final CRC32 crc = new CRC32();
+                crc.update(payload, 0, length);
+
+                if ((int) crc.getValue() != s.buffer.getInt(pos + 4)) {
+                    logger.warn("Torn journal record at " + file + ":" + pos + ", rest of the segment is skipped");
+                    break;
+                }
+
+                if (s.buffer.get(pos + 8) == PENDING)
+                    try {
+                        recovered.add(new Recovered(new Entry(s, pos), decode(payload)));
+                        s.live++;
+                    } catch (final IOException e) {
+                        logger.error("Unreadable journal record at " + file + ":" + pos + ": " + e.getMessage(), e);
+                    }
+
+                pos += HEADER + length;
+            }
+
+            s.position = pos;
+            retireIfDone(s);
+        }
+
+        pending.set(recovered.size());
+
+        if (!recovered.isEmpty())
+            logger.info("Journal: " + recovered.size() + " unfinished updates to replay");
+
+        return next;
+    }
+
+    private static byte[] encode(final Update u) {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+
+        try (final DataOutputStream out = new DataOutputStream(bos)) {
+            out.writeLong(u.id);
+            out.writeLong(u.userId);
+            writeString(out, u.firstName);
+            writeString(out, u.lastName);
+            writeString(out, u.username);
+            writeString(out, u.lang);
+            out.writeLong(u.messageId);
+            writeString(out, u.text);
+            writeString(out, u.caption);
+            writeString(out, u.callbackId);
+            writeString(out, u.callbackData);
+
+            final Update.Attachment a = u.attachment;
+            out.writeBoolean(a != null);
+
+            if (a != null) {
+                out.writeUTF(a.type.name());
+                writeString(out, a.fileId);
+                writeString(out, a.uniqueId);
+                writeString(out, a.fileName);
+                out.writeLong(a.contactUserId);
+                writeString(out, a.contactFirstName);
+                writeString(out, a.contactLastName);
+                writeString(out, a.contactUsername);
+                writeString(out, a.phone);
+                writeString(out, a.contactJson);
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e); // not possible for an in-memory stream
+        }
+
+        return bos.toByteArray();
+    }
+
+    private static Update decode(final byte[] payload) throws IOException {
+        try (final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            final long id = in.readLong(), userId = in.readLong();
+            final String firstName = readString(in), lastName = readString(in), username = readString(in), lang = readString(in);
+            final long messageId = in.readLong();
+            final String text = readString(in), caption = readString(in), callbackId = readString(in), callbackData = readString(in);
+
+            Update.Attachment a = null;
+            if (in.readBoolean())
+                a = new Update.Attachment(ContentType.valueOf(in.readUTF()), readString(in), readString(in), readString(in), in.readLong(),
+                        readString(in), readString(in), readString(in), readString(in), readString(in));
+
+            return new Update(id, userId, firstName, lastName, username, lang, messageId, text, caption, a, callbackId, callbackData);
+        }
+    }
+
+    // writeUTF is limited to 64k of encoded bytes, a message text is far below that
+    private static void writeString(final DataOutputStream out, final String s) throws IOException {
+        out.writeBoolean(s != null);
+
+        if (s != null)
+            out.writeUTF(s);
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    public static final class Entry {
+        private final Segment segment;
+        private final int offset;
+        private boolean done; // guarded by the journal
+
+        private Entry(final Segment segment, final int offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+
+    public static final class Recovered {
+        public final Entry entry;
+        public final Update update;
+
+        private Recovered(final Entry entry, final Update update) {
+            this.entry = entry;
+            this.update = update;
+        }
+    }
+
+    private static final class Segment {
+        private final long id;
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        private int position, live;
+        private boolean sealed;
+
+        private Segment(final long id, final Path file, final MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    private static final class Waiter {
+        private final long upTo;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private Waiter(final long upTo) {
+            this.upTo = upTo;
+        }
+    }
+}
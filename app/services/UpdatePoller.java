@@ -0,0 +1,160 @@
+package services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.typesafe.config.Config;
+import model.Update;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+import play.libs.ws.WSClient;
+import play.libs.ws.WSResponse;
+import utils.UpdateDecoder;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Long polling ingest: pulls updates by getUpdates batches instead of waiting for webhook calls. Enabled with
+ * service.bot.ingest = "poll", the webhook is dropped on start since telegram refuses getUpdates while it is set.
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+@Singleton
+public class UpdatePoller {
+    private static final Logger.ALogger logger = Logger.of(UpdatePoller.class);
+
+    private final String apiUrl;
+    private final WSClient ws;
+    private final UpdateService updates;
+    private final UpdateJournal journal;
+    private final int limit, timeout;
+    private final long backoffMs;
+
+    private final LongAdder batches = new LongAdder(), received = new LongAdder(), refused = new LongAdder();
+
+    private volatile boolean running;
+    private volatile long offset;
+    private Thread thread;
+
+    @Inject
+    public UpdatePoller(final Config config, final WSClient ws, final UpdateService updates, final UpdateJournal journal,
+                        final ApplicationLifecycle lifecycle) {
+        this.ws = ws;
+        this.updates = updates;
+        this.journal = journal;
+        apiUrl = config.getString("service.bot.api_url");
+        limit = Math.min(100, config.getInt("service.poll.limit"));
+        timeout = (int) config.getDuration("service.poll.timeout", TimeUnit.SECONDS);
+        backoffMs = config.getDuration("service.poll.backoff", TimeUnit.MILLISECONDS);
+
+        if (!"poll".equals(config.getString("service.bot.ingest")))
+            return;
+
+        running = true;
+        thread = new Thread(this::loop, "poller");
+        thread.setDaemon(true);
+        thread.start();
+
+        lifecycle.addStopHook(() -> {
+            running = false;
+            thread.interrupt();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    private void loop() {
+        try {
+            ws.url(apiUrl + "deleteWebhook").post(Json.newObject()).toCompletableFuture().get();
+        } catch (final Exception e) {
+            logger.error("Cant drop webhook: " + e.getMessage(), e);
+        }
+
+        logger.info("Long polling started");
+
+        while (running)
+            try {
+                if (!poll())
+                    Thread.sleep(backoffMs);
+            } catch (final InterruptedException e) {
+                break;
+            } catch (final Exception e) {
+                logger.error(e.getMessage(), e);
+
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (final InterruptedException ignore) {
+                    break;
+                }
+            }
+
+        logger.info("Long polling stopped");
+    }
+
+    /**
+     * Fetches a batch and feeds it in order into the intake. Offset is moved only past accepted updates, so telegram
+     * keeps the refused tail and returns it on the next call: the offset is committed by the next getUpdates.
+     *
+     * @return false if the batch was not fully accepted and polling has to back off
+     */
+    private boolean poll() throws Exception {
+        // the next call commits the offset, so everything accepted before has to be journaled by then
+        journal.flushed().toCompletableFuture().get();
+
+        final ObjectNode req = Json.newObject();
+        req.put("offset", offset);
+        req.put("limit", limit);
+        req.put("timeout", timeout);
+        req.putArray("allowed_updates").add("message").add("callback_query");
+
+        final WSResponse wsr = ws.url(apiUrl + "getUpdates")
+                .setRequestTimeout(Duration.ofSeconds(timeout + 10))
+                .post(req)
+                .toCompletableFuture()
+                .get();
+
+        final byte[] reply = wsr.getBodyAsBytes().toArray();
+        final List<Update> batch = UpdateDecoder.decodeBatch(reply);
+
+        if (batch == null) {
+            logger.error("getUpdates failed: " + new String(reply, StandardCharsets.UTF_8));
+            return false;
+        }
+
+        batches.increment();
+
+        for (int i = 0; i < batch.size(); i++) {
+            final Update update = batch.get(i);
+
+            if (!updates.route(update)) {
+                refused.add(batch.size() - i);
+                return false;
+            }
+
+            received.increment();
+            offset = update.id + 1;
+        }
+
+        return true;
+    }
+
+    public JsonNode stats() {
+        final ObjectNode node = Json.newObject();
+
+        node.put("running", running);
+        node.put("offset", offset);
+        node.put("batches", batches.sum());
+        node.put("received", received.sum());
+        node.put("refused", refused.sum());
+
+        return node;
+    }
+}
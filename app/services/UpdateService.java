@@ -0,0 +1,452 @@
+package services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.typesafe.config.Config;
+import model.*;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+import utils.IdWindow;
+import utils.NamedThreadFactory;
+import utils.UpdateDecoder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static utils.TextUtils.getInt;
+import static utils.TextUtils.notNull;
+
+/**
+ * Telegram updates intake, shared by webhook and long polling.
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+@Singleton
+public class UpdateService {
+    private static final Logger.ALogger logger = Logger.of(UpdateService.class);
+
+    private final IdWindow seen;
+    private final LongAdder checked = new LongAdder(), duplicates = new LongAdder();
+
+    // pager taps of a user arriving within the window are collapsed into one net move
+    private final ConcurrentHashMap<Long, NavBurst> navs = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService navTimer;
+    private final long navWindowMs;
+    private final LongAdder navTaps = new LongAdder(), navRenders = new LongAdder();
+
+    // updates left from the previous run are routed first, new ones are refused until then and redelivered by telegram
+    private volatile boolean replaying;
+
+    @Inject
+    private TgApi api;
+
+    @Inject
+    private UserService userService;
+
+    @Inject
+    private TfsService tfs;
+
+    @Inject
+    private MailboxService mailbox;
+
+    @Inject
+    private Pipeline pipeline;
+
+    @Inject
+    private Admission admission;
+
+    @Inject
+    private UpdateJournal journal;
+
+    @Inject
+    public UpdateService(final Config config, final ApplicationLifecycle lifecycle) {
+        seen = config.getBoolean("service.dedup.enabled") ? new IdWindow(config.getInt("service.dedup.window")) : null;
+        navWindowMs = config.getBoolean("service.coalesce.enabled") ? config.getDuration("service.coalesce.window", TimeUnit.MILLISECONDS) : 0;
+        navTimer = navWindowMs > 0 ? Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("coalesce")) : null;
+
+        if (navTimer != null)
+            lifecycle.addStopHook(() -> {
+                navTimer.shutdown();
+                navs.values().forEach(this::flush);
+                return CompletableFuture.completedFuture(null);
+            });
+    }
+
+    /**
+     * Decodes and routes the update on the parse stage.
+     *
+     * @return false if the update was refused and has to be redelivered
+     */
+    public CompletionStage<Boolean> accept(final byte[] payload) {
+        if (!admission.open())
+            return CompletableFuture.completedFuture(false);
+
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                final Update update;
+
+                try {
+                    update = UpdateDecoder.decode(payload);
+                } catch (final Exception e) {
+                    logger.error("Undecodable update: " + e.getMessage(), e);
+                    return true;
+                }
+
+                return update == null || route(update);
+            }, pipeline.executor(Pipeline.Stage.PARSE))
+                    // acknowledged only when journaled
+                    .thenCompose(accepted -> accepted ? journal.flushed().thenApply(ignore -> true) : CompletableFuture.completedFuture(false));
+        } catch (final RejectedExecutionException e) {
+            logger.warn("Parse stage is full, update rejected");
+            return CompletableFuture.completedFuture(false);
+        }
+    }
+
+    /**
+     * Puts the update into the sender's mailbox, in the caller's thread. Redeliveries of already accepted updates are
+     * dropped here. The update is journaled, but it is durable only when {@link UpdateJournal#flushed()} completes.
+     *
+     * @return false if the bot is overloaded or the mailbox refused the update
+     */
+    public boolean route(final Update update) {
+        if (replaying || !admission.admit(update.isCallback()))
+            return false;
+
+        if (seen != null && update.id != 0) {
+            checked.increment();
+
+            if (!seen.mark(update.id)) {
+                duplicates.increment();
+                logger.debug("Duplicate update #" + update.id + " dropped");
+                return true;
+            }
+        }
+
+        final UpdateJournal.Entry entry = journal.append(update);
+        final boolean accepted = dispatch(update, entry);
+
+        if (!accepted) { // will be redelivered, it is not a duplicate then
+            journal.done(entry);
+
+            if (seen != null && update.id != 0)
+                seen.forget(update.id);
+        }
+
+        return accepted;
+    }
+
+    /**
+     * Replays updates the journal has left from the previous run: in arrival order, hence in order for each user.
+     * Called by guice once the fields are injected.
+     */
+    @Inject
+    void replayJournal() {
+        final List<UpdateJournal.Recovered> list = journal.recovered();
+
+        if (list.isEmpty())
+            return;
+
+        replaying = true;
+
+        final Thread replay = new Thread(() -> {
+            try {
+                for (final UpdateJournal.Recovered r : list) {
+                    if (seen != null && r.update.id != 0)
+                        seen.mark(r.update.id);
+
+                    try {
+                        while (!dispatch(r.update, r.entry)) // user's mailbox is full, wait for it
+                            Thread.sleep(50);
+                    } catch (final InterruptedException e) {
+                        return;
+                    } catch (final Exception e) {
+                        logger.error("Replaying update [" + r.update + "]: " + e.getMessage(), e);
+                        journal.done(r.entry);
+                    }
+                }
+
+                logger.info("Journal replay finished: " + list.size() + " updates");
+            } finally {
+                replaying = false;
+            }
+        }, "journal-replay");
+
+        replay.setDaemon(true);
+        replay.start();
+    }
+
+    public JsonNode stats() {
+        final ObjectNode node = Json.newObject();
+
+        node.put("enabled", seen != null);
+        node.put("window", seen == null ? 0 : seen.size());
+        node.put("checked", checked.sum());
+        node.put("duplicates", duplicates.sum());
+        node.put("coalesceWindowMs", navWindowMs);
+        node.put("navTaps", navTaps.sum());
+        node.put("navRenders", navRenders.sum());
+
+        return node;
+    }
+
+    private boolean dispatch(final Update update, final UpdateJournal.Entry entry) {
+        if (update.userId == 0) {
+            logger.debug("Необслуживаемый тип сообщения");
+            return skip(entry);
+        }
+
+        if (update.isCallback()) {
+            final String cb = notNull(update.callbackData);
+
+            final int del = cb.indexOf(':');
+
+            if (del < 1) {
+                logger.debug("Неизвестный науке коллбек: " + cb);
+                flushNav(update.userId);
+                return enqueue(update, entry, u -> {
+                    userService.reset(u);
+                    u.doView();
+                });
+            }
+
+            final Command command = new Command();
+            command.elementIdx = del < cb.length() - 1 ? getInt(cb.substring(del + 1)) : -1;
+            command.type = CommandType.ofString(cb);
+
+            if (navTimer != null && (command.type == CommandType.forward || command.type == CommandType.rewind)) {
+                // a tap is never refused, it is answered right away: the net move may come much later
+                api.sendCallbackAnswer("", update.callbackId, false, 0);
+                collapse(update, entry, command.type == CommandType.forward ? 1 : -1);
+                return true;
+            }
+
+            flushNav(update.userId);
+            return enqueue(update, entry, u -> u.onCallback(command));
+        } else if (update.isMessage()) {
+            flushNav(update.userId);
+
+            final String text = update.text;
+
+            if (text != null) {
+                if (text.equals("/start"))
+                    return enqueue(update, entry, u -> {
+                        api.sendText("Welcome!", null, null, u.id);
+                        u.doView();
+                    });
+                else if (text.equals("/reset"))
+                    return enqueue(update, entry, this::doReset);
+                else if (text.equals("/help"))
+                    return enqueue(update, entry, u -> api.dialogUnescaped(u.doHelp(), u, TgApi.voidKbd));
+                else if (text.startsWith("/start shared-"))
+                    return enqueue(update, entry, u -> u.joinShare(notNull(text).substring(14)));
+                else
+                    return enqueue(update, entry, u -> u.onInput(text));
+            }
+
+            final Update.Attachment attach = update.attachment;
+
+            if (attach == null) {
+                logger.debug("Необслуживаемый тип сообщения");
+                return enqueue(update, entry, null);
+            }
+
+            final TFile file = new TFile();
+            file.type = attach.type;
+
+            if (attach.type == ContentType.CONTACT) {
+                // dirty simple hack :)
+                final String p = notNull(attach.phone);
+                file.setOwner(attach.contactUserId);
+                file.uniqId = p;
+                file.refId = attach.contactJson;
+                file.name = notNull((notNull(attach.contactFirstName) + " " + notNull(attach.contactLastName)), notNull(attach.contactUsername, notNull(p, "u" + attach.contactUserId)));
+            } else {
+                file.refId = attach.fileId;
+                file.uniqId = attach.uniqueId;
+                file.name = attach.fileName;
+            }
+
+            if (file.name == null)
+                file.name = update.caption != null && !update.caption.trim().isEmpty()
+                        ? update.caption.trim()
+                        : file.type.name().toLowerCase() + "_" + file.uniqId;
+
+            return enqueue(update, entry, u -> u.onFile(file));
+        }
+
+        logger.debug("Необслуживаемый тип сообщения");
+        return skip(entry);
+    }
+
+    // nothing is queued for the update: it is handled already
+    private boolean skip(final UpdateJournal.Entry entry) {
+        journal.done(entry);
+        return true;
+    }
+
+    // the tap's entry is done with the net move it is collapsed into
+    private void collapse(final Update update, final UpdateJournal.Entry entry, final int delta) {
+        navTaps.increment();
+
+        while (true) {
+            final NavBurst fresh = new NavBurst(update.userId);
+            final NavBurst burst = navs.computeIfAbsent(update.userId, id -> fresh);
+
+            synchronized (burst) {
+                if (burst.flushed)
+                    continue;
+
+                burst.delta += delta;
+                burst.update = update;
+                burst.entries.add(entry);
+            }
+
+            if (burst == fresh)
+                navTimer.schedule(() -> flush(burst), navWindowMs, TimeUnit.MILLISECONDS);
+
+            return;
+        }
+    }
+
+    // any other update of the user goes after the taps made before it
+    private void flushNav(final long userId) {
+        if (navTimer == null)
+            return;
+
+        final NavBurst burst = navs.get(userId);
+
+        if (burst != null)
+            flush(burst);
+    }
+
+    private void flush(final NavBurst burst) {
+        final int delta;
+        final Update update;
+
+        synchronized (burst) {
+            if (burst.flushed)
+                return;
+
+            burst.flushed = true;
+            navs.remove(burst.userId, burst);
+            delta = burst.delta;
+            update = burst.update;
+        }
+
+        if (delta == 0) { // back and forth, nothing to render
+            burst.entries.forEach(journal::done);
+            return;
+        }
+
+        final Command command = new Command();
+        command.type = delta > 0 ? CommandType.forward : CommandType.rewind;
+        command.elementIdx = -1;
+        command.steps = Math.abs(delta);
+
+        navRenders.increment();
+        if (!enqueue(update, burst.entries, false, u -> u.onCallback(command))) {
+            logger.warn("Mailbox #" + burst.userId + " is full, " + command.steps + " pager taps lost");
+            burst.entries.forEach(journal::done);
+        }
+    }
+
+    /**
+     * User's updates are strictly ordered, each one goes resolve -> execute on the corresponding stage executors. The
+     * next update of the user goes once this one is executed and telegram's replies to what it sent are applied to the
+     * user, its journal entry is done once the user's state it left is written.
+     *
+     * @param task null if the user has to be only resolved
+     */
+    private boolean enqueue(final Update update, final UpdateJournal.Entry entry, final Consumer<User> task) {
+        return enqueue(update, Collections.singletonList(entry), true, task);
+    }
+
+    /**
+     * @param acknowledge false if the update is answered already
+     */
+    private boolean enqueue(final Update update, final List<UpdateJournal.Entry> entries, final boolean acknowledge, final Consumer<User> task) {
+        return mailbox.submit(update.userId, () -> {
+            if (acknowledge)
+                acknowledge(update);
+
+            final CompletableFuture<User> resolved = CompletableFuture.supplyAsync(() -> getUser(update), pipeline.executor(Pipeline.Stage.RESOLVE));
+            final CompletableFuture<CompletableFuture<Void>> executed = resolved
+                    .thenApplyAsync(user -> task != null && user != null ? handleUserRequest(user, task, update) : CompletableFuture.<Void>completedFuture(null),
+                            pipeline.executor(Pipeline.Stage.EXECUTE));
+
+            executed.thenCompose(stored -> stored).whenComplete((ignore, e) -> entries.forEach(journal::done));
+
+            return executed.thenCompose(stored -> resolved.join() == null ? CompletableFuture.completedFuture(null) : resolved.join().takeReplies());
+        });
+    }
+
+    // telegram's side of the update, once the mailbox took it: a refused update comes again and would repeat it
+    private void acknowledge(final Update update) {
+        if (update.isCallback())
+            api.sendCallbackAnswer("", update.callbackId, false, 0);
+        else if (update.isMessage())
+            api.deleteMessage(update.messageId, update.userId);
+    }
+
+    // both run inside the user's mailbox: next update of the user waits for this one
+    private void doReset(final User user) {
+        final long userId = user.id;
+
+        try {
+            api.cleanup(userId, user.lastMessageId);
+            userService.reset(user);
+            tfs.reinitUserTables(userId);
+            userService.evict(userId); // root may be recreated
+            user.doView();
+
+            logger.info("User " + user.name + " #" + user.id + " rebuilded");
+        } catch (final Exception e) {
+            logger.error("Resetting user #" + userId + ": " + e.getMessage(), e);
+        }
+    }
+
+    // completed once the user's state is written
+    private CompletableFuture<Void> handleUserRequest(final User user, final Consumer<User> task, final Update update) {
+        try {
+            task.accept(user);
+        } catch (final Exception e) {
+            logger.error("Handling update [" + update + "]: " + e.getMessage(), e);
+        }
+
+        return userService.update(user);
+    }
+
+    private User getUser(final Update update) {
+        final long id = update.userId;
+
+        try {
+            return userService.resolve(id,
+                    update.lang != null ? update.lang : "en",
+                    notNull((notNull(update.firstName) + " " + notNull(update.lastName)), notNull(update.username, "u" + id)));
+        } finally {
+            api.cleanup(id);
+        }
+    }
+
+    private static final class NavBurst {
+        private final long userId;
+        private int delta;
+        private Update update;
+        private boolean flushed;
+        // journal entries of the taps, done with the net move; fixed once flushed
+        private final List<UpdateJournal.Entry> entries = new ArrayList<>(2);
+
+        private NavBurst(final long userId) {
+            this.userId = userId;
+        }
+    }
+}
@@ -1,27 +1,40 @@
 package services;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.inject.Singleton;
 import com.typesafe.config.Config;
 import model.User;
 import model.user.*;
+import org.mybatis.guice.transactional.Transactional;
 import play.Logger;
+import play.inject.ApplicationLifecycle;
 import play.libs.Json;
 import sql.UserMapper;
+import utils.Fingerprint;
+import utils.NamedThreadFactory;
 
 import javax.inject.Inject;
 import java.lang.reflect.Constructor;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import static utils.TextUtils.notNull;
 
 /**
+ * Active users are kept resolved in memory, least recently seen are dropped beyond the cache size or after the idle
+ * time. A cached user is only touched from its own mailbox; its changes go to the database through {@link UserStore}
+ * and are flushed before a user is read from there, so a dropped one is resolved with the same state.
+ *
  * @author Denis Danilin | denis@danilin.name
  * 02.06.2020
  * tfs ☭ sweat and blood
  */
+@Singleton
 public class UserService {
     private static final Logger.ALogger logger = Logger.of(UserService.class);
     private static final Map<String, Constructor<? extends Role>> constructors;
@@ -59,34 +72,175 @@ public class UserService {
     private UserMapper userMapper;
 
     @Inject
-    private Config config;
+    private UserStore store;
+
+    private final Config config;
+
+    // access ordered, guarded by itself
+    private final LinkedHashMap<Long, Cached> cache;
+    private final int cacheSize;
+    private final long idleMs;
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder(), evicted = new LongAdder(), expired = new LongAdder();
+
+    @Inject
+    public UserService(final Config config, final ApplicationLifecycle lifecycle) {
+        this.config = config;
+        cacheSize = config.getBoolean("service.users.cache.enabled") ? config.getInt("service.users.cache.size") : 0;
+        idleMs = config.getDuration("service.users.cache.idle", TimeUnit.MILLISECONDS);
+
+        cache = new LinkedHashMap<Long, Cached>(Math.max(16, cacheSize / 4), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, Cached> eldest) {
+                if (size() <= cacheSize)
+                    return false;
+
+                evicted.increment();
+                return true;
+            }
+        };
+
+        if (cacheSize > 0) {
+            final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("users"));
+            final long period = Math.max(1000, Math.min(idleMs / 4, TimeUnit.MINUTES.toMillis(1)));
+            sweeper.scheduleWithFixedDelay(this::expire, period, period, TimeUnit.MILLISECONDS);
+
+            lifecycle.addStopHook(() -> {
+                sweeper.shutdown();
+                return CompletableFuture.completedFuture(null);
+            });
+        }
+    }
 
     public String getBotName() {
         return config.getString("service.bot.nick");
     }
 
-    public User resolveUser(final long id, final String lang, final String name) {
-        if (userMapper.isUserMissed(id)) {
-            tfsService.initUserTables(id);
-            userMapper.insertUser(id);
+    /**
+     * Resolves the sender of an update, from the cache if the user is active, and moves it over to the entries table if
+     * it is the mode and the user is not moved yet. Must be called from the user's mailbox, out of any transaction.
+     */
+    public User resolve(final long id, final String lang, final String name) {
+        final User user = lookup(id, lang, name);
+
+        // out of any transaction: the move takes a connection of its own
+        if (user != null)
+            tfsService.ensureInEntries(id);
+
+        return user;
+    }
+
+    private User lookup(final long id, final String lang, final String name) {
+        if (cacheSize <= 0)
+            return resolveUser(id, lang, name);
+
+        final Cached cached;
+        synchronized (cache) {
+            cached = cache.get(id);
+
+            if (cached != null)
+                cached.seenAt = System.currentTimeMillis();
+        }
+
+        if (cached != null) {
+            hits.increment();
+            cached.user.lang = lang;
+            cached.user.name = name;
+            return cached.user;
         }
 
-        final Map<String, Object> map = userMapper.getUser(id);
+        misses.increment();
+        final User user = resolveUser(id, lang, name);
+
+        if (user != null)
+            synchronized (cache) {
+                cache.put(id, new Cached(user));
+            }
+
+        return user;
+    }
 
-        if (!map.containsKey("data"))
-            return new User(id, (UUID) map.get("root_id"), notNull(lang, "en"), name, null, null, null, 0, new DirViewer(api, tfsService, this, Json.newObject()));
+    /**
+     * Drops the user from the cache, it is resolved from the database on its next update.
+     */
+    public void evict(final long id) {
+        synchronized (cache) {
+            cache.remove(id);
+        }
+    }
 
-        final JsonNode data = Json.parse((String) map.get("data"));
+    public JsonNode stats() {
+        final ObjectNode node = Json.newObject();
+        final long h = hits.sum(), m = misses.sum();
+
+        synchronized (cache) {
+            node.put("cached", cache.size());
+        }
+        node.put("capacity", cacheSize);
+        node.put("hits", h);
+        node.put("misses", m);
+        node.put("hitRate", h + m == 0 ? 0 : h / (double) (h + m));
+        node.put("evicted", evicted.sum());
+        node.put("expired", expired.sum());
+
+        return node;
+    }
+
+    // least recently seen come first
+    private void expire() {
+        final long before = System.currentTimeMillis() - idleMs;
+
+        synchronized (cache) {
+            for (final Iterator<Cached> it = cache.values().iterator(); it.hasNext(); ) {
+                if (it.next().seenAt > before)
+                    break;
+
+                it.remove();
+                expired.increment();
+            }
+        }
+    }
+
+    /**
+     * Resolves the user from the database in one statement, creating it if needed, bypassing the cache. A new user's
+     * tables are created in the same transaction, the root of a user stored before root_id existed is looked up once.
+     */
+    @Transactional(force = true)
+    public User resolveUser(final long id, final String lang, final String name) {
+        store.flush(id);
+
+        Map<String, Object> map = userMapper.resolveUser(id);
+
+        // a concurrent insert of the same user committed after the statement's snapshot: neither half saw a row, the
+        // repeated statement does
+        if (map == null)
+            map = userMapper.resolveUser(id);
+
+        UUID rootId = (UUID) map.get("root_id");
+        tfsService.knownStorage(id, (String) map.get("storage"), Boolean.TRUE.equals(map.get("entries")));
+
+        if (rootId == null) {
+            rootId = Boolean.TRUE.equals(map.get("created")) ? tfsService.initUserTables(id) : userMapper.findRoot(id);
+            userMapper.setRootId(rootId, id);
+        }
+
+        if (map.get("data") == null)
+            return new User(id, rootId, notNull(lang, "en"), name, 0, 0, 0, 0, new DirViewer(api, tfsService, this, Json.newObject()));
+
+        final String dump = (String) map.get("data");
+        final JsonNode data = Json.parse(dump);
 
         try {
-            return new User(
-                    id, (UUID) map.get("root_id"),
+            final User user = new User(
+                    id, rootId,
                     lang, name,
-                    (String) map.get("last_ref_id"),
-                    (String) map.get("last_text"),
-                    (String) map.get("last_kbd"),
+                    (Long) map.get("last_ref_fp"),
+                    (Long) map.get("last_text_fp"),
+                    (Long) map.get("last_kbd_fp"),
                     (Long) map.get("last_message_id"),
                     constructors.getOrDefault(String.valueOf(data.get("_class").asText()), constructors.get(DirViewer.class.getName())).newInstance(api, tfsService, this, data));
+            user.markSaved(Fingerprint.of(dump));
+
+            return user;
         } catch (final Exception e) {
             logger.error(e.getMessage(), e);
 
@@ -94,13 +248,13 @@ public class UserService {
         }
     }
 
-    public void update(final User user) {
-        userMapper.updateUser(
-                notNull(user.lastRefId),
-                notNull(user.lastText),
-                notNull(user.lastKeyboard),
-                user.dump().toString(),
-                user.id);
+    /**
+     * Queues the user's state to be written, if it changed.
+     *
+     * @return completed once the state is in the database
+     */
+    public CompletableFuture<Void> update(final User user) {
+        return store.save(user);
     }
 
     public <T extends Role> T morphTo(final Class<T> target, final User source) {
@@ -118,9 +272,19 @@ public class UserService {
     public void reset(final User user) {
         user.setRole(new DirViewer(api, tfsService, this, Json.parse("{\"entryId\":\""+user.rootId+"\"}")));
         user.lastMessageId = 0;
-        user.lastKeyboard = null;
-        user.lastText = null;
-        user.lastRefId = null;
+        user.lastKbdFp = 0;
+        user.lastTextFp = 0;
+        user.lastRefFp = 0;
         update(user);
+        store.saveMessageId(user.id, 0);
+    }
+
+    private static final class Cached {
+        private final User user;
+        private long seenAt = System.currentTimeMillis(); // guarded by the cache
+
+        private Cached(final User user) {
+            this.user = user;
+        }
     }
 }
@@ -0,0 +1,281 @@
+package services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.typesafe.config.Config;
+import model.User;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+import sql.UserMapper;
+import utils.Fingerprint;
+import utils.NamedThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Write-behind of users' state: a user is saved only if its state differs from what was saved last, pending changes of
+ * a user are merged into one row write, and rows are written in one jdbc batch every flush interval. At most the last
+ * interval of changes is lost on a crash, stopping the application flushes everything. A user has at most one write in
+ * flight, the next one waits in pending until it ends, so an older state never lands over a newer one.
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+@Singleton
+public class UserStore {
+    private static final Logger.ALogger logger = Logger.of(UserStore.class);
+
+    private final SqlSessionFactory sessions;
+    private final ScheduledExecutorService flusher;
+    private final ConcurrentHashMap<Long, Write> pending = new ConcurrentHashMap<>();
+    // users' writes in flight, completed when the attempt ends either way
+    private final ConcurrentHashMap<Long, CompletableFuture<Void>> writing = new ConcurrentHashMap<>();
+
+    private final AtomicLong maxBatch = new AtomicLong(0);
+    private final LongAdder saves = new LongAdder(), clean = new LongAdder(), merged = new LongAdder(), written = new LongAdder(), batches = new LongAdder(),
+            failed = new LongAdder();
+
+    @Inject
+    public UserStore(final Config config, final SqlSessionFactory sessions, final ApplicationLifecycle lifecycle) {
+        this.sessions = sessions;
+        final long flushMs = Math.max(1, config.getDuration("service.users.flush", TimeUnit.MILLISECONDS));
+
+        flusher = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("users-store"));
+        flusher.scheduleWithFixedDelay(this::flush, flushMs, flushMs, TimeUnit.MILLISECONDS);
+
+        lifecycle.addStopHook(() -> {
+            flusher.shutdown();
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+            flush();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Queues the user's state if it changed since the last save. Has to be called from the user's mailbox.
+     *
+     * @return completed once the state is in the database, right away if there was nothing to write
+     */
+    public CompletableFuture<Void> save(final User user) {
+        final String data = user.dump().toString();
+
+        saves.increment();
+        if (!user.markSaved(Fingerprint.of(data))) {
+            clean.increment();
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final Write w = new Write(user.id);
+        w.state = true;
+        w.refFp = user.lastRefFp;
+        w.textFp = user.lastTextFp;
+        w.kbdFp = user.lastKbdFp;
+        w.data = data;
+
+        return queue(w);
+    }
+
+    /**
+     * Queues the id of the user's last message, set from telegram's reply.
+     *
+     * @return completed once the id is in the database
+     */
+    public CompletableFuture<Void> saveMessageId(final long userId, final long messageId) {
+        final Write w = new Write(userId);
+        w.message = true;
+        w.messageId = messageId;
+
+        return queue(w);
+    }
+
+    /**
+     * Writes the user's pending changes right away, after the write in flight if there is one, for the user to be read
+     * from the database.
+     */
+    public void flush(final long userId) {
+        while (true) {
+            final CompletableFuture<Void> inFlight = writing.get(userId);
+
+            if (inFlight != null) {
+                inFlight.join();
+                continue;
+            }
+
+            final Write w = claim(userId);
+
+            if (w != null)
+                write(w);
+
+            if (w != null || !writing.containsKey(userId))
+                return;
+        }
+    }
+
+    public JsonNode stats() {
+        final ObjectNode node = Json.newObject();
+        final long b = batches.sum();
+
+        node.put("pending", pending.size());
+        node.put("saves", saves.sum());
+        node.put("clean", clean.sum());
+        node.put("merged", merged.sum());
+        node.put("written", written.sum());
+        node.put("batches", b);
+        node.put("avgBatch", b == 0 ? 0 : written.sum() / (double) b);
+        node.put("maxBatch", maxBatch.get());
+        node.put("failed", failed.sum());
+
+        return node;
+    }
+
+    private CompletableFuture<Void> queue(final Write w) {
+        final CompletableFuture<Void> stored = new CompletableFuture<>();
+        w.stored.add(stored);
+
+        pending.merge(w.userId, w, (older, newer) -> {
+            merged.increment();
+            return newer.over(older);
+        });
+
+        return stored;
+    }
+
+    // takes the user's pending write unless another one is in flight, which keeps it pending
+    private Write claim(final long userId) {
+        final Write[] claimed = new Write[1];
+
+        pending.computeIfPresent(userId, (id, w) -> {
+            if (writing.putIfAbsent(id, new CompletableFuture<>()) != null)
+                return w;
+
+            claimed[0] = w;
+            return null;
+        });
+
+        return claimed[0];
+    }
+
+    // the attempt is over: a failed write is back in pending, merged under the newer changes, before the next one may go
+    private void release(final Write w, final boolean ok) {
+        if (!ok)
+            pending.merge(w.userId, w, (newer, older) -> newer.over(older));
+
+        writing.remove(w.userId).complete(null);
+
+        if (ok)
+            w.stored.forEach(f -> f.complete(null));
+    }
+
+    private void flush() {
+        if (pending.isEmpty())
+            return;
+
+        final List<Write> batch = new ArrayList<>(pending.size());
+        for (final Long id : pending.keySet()) {
+            final Write w = claim(id);
+
+            if (w != null)
+                batch.add(w);
+        }
+
+        if (batch.isEmpty())
+            return;
+
+        // same statement shapes in a row, the batch is split on each change of it
+        batch.sort(Comparator.comparingInt(Write::shape));
+
+        boolean ok = false;
+
+        try (final SqlSession session = sessions.openSession(ExecutorType.BATCH, false)) {
+            final UserMapper mapper = session.getMapper(UserMapper.class);
+
+            for (final Write w : batch)
+                w.writeTo(mapper);
+
+            session.flushStatements();
+            session.commit();
+
+            batches.increment();
+            written.add(batch.size());
+            maxBatch.accumulateAndGet(batch.size(), Math::max);
+            ok = true;
+        } catch (final Exception e) {
+            failed.increment();
+            logger.error("Writing " + batch.size() + " users: " + e.getMessage(), e);
+        }
+
+        // failed ones are back for the next round, unless already overwritten by newer changes
+        for (final Write w : batch)
+            release(w, ok);
+    }
+
+    private void write(final Write w) {
+        boolean ok = false;
+
+        try (final SqlSession session = sessions.openSession(ExecutorType.SIMPLE, false)) {
+            w.writeTo(session.getMapper(UserMapper.class));
+            session.commit();
+            written.increment();
+            ok = true;
+        } catch (final Exception e) {
+            failed.increment();
+            logger.error("Writing user #" + w.userId + ": " + e.getMessage(), e);
+        } finally {
+            release(w, ok);
+        }
+    }
+
+    // a user's row changes: the state part and the last message id are set independently
+    private static final class Write {
+        private final long userId;
+        private boolean state, message;
+        private long refFp, textFp, kbdFp, messageId;
+        private String data;
+        // savers waiting for the changes to be written
+        private final List<CompletableFuture<Void>> stored = new ArrayList<>(1);
+
+        private Write(final long userId) {
+            this.userId = userId;
+        }
+
+        // this one is newer: takes from the older one what it does not set itself
+        private Write over(final Write older) {
+            if (!state && older.state) {
+                state = true;
+                refFp = older.refFp;
+                textFp = older.textFp;
+                kbdFp = older.kbdFp;
+                data = older.data;
+            }
+
+            if (!message && older.message) {
+                message = true;
+                messageId = older.messageId;
+            }
+
+            stored.addAll(older.stored);
+
+            return this;
+        }
+
+        private int shape() {
+            return (state ? 2 : 0) + (message ? 1 : 0);
+        }
+
+        private void writeTo(final UserMapper mapper) {
+            mapper.saveUser(userId, state, refFp, textFp, kbdFp, data, message, messageId);
+        }
+    }
+}
@@ -12,26 +12,25 @@ import java.util.UUID;
  * tfs ☭ sweat and blood
  */
 public interface EntryMapper {
-    int countSearch(@Param("query") String query, @Param("dirId") UUID dirId, @Param("v1") String v1);
+    int countSearch(@Param("query") String query, @Param("dirId") UUID dirId, @Param("scope") Scope scope);
 
-    int countDirLs(@Param("dirId") UUID dirId, @Param("v1") String v1);
+    int countDirLs(@Param("dirId") UUID dirId, @Param("scope") Scope scope);
 
-    int countDirGear(@Param("dirId") UUID dirId, @Param("v1") String v1);
+    int countDirGear(@Param("dirId") UUID dirId, @Param("scope") Scope scope);
 
-    List<TFile> lsDirContent(@Param("dirId") UUID dirId, @Param("offset") int offset, @Param("limit") int limit, @Param("v1") String v1, @Param("v2") String v2);
+    List<TFile> lsDirContent(@Param("dirId") UUID dirId, @Param("offset") int offset, @Param("limit") int limit, @Param("scope") Scope scope);
 
-    List<TFile> gearDirContent(@Param("dirId") UUID dirId, @Param("offset") int offset, @Param("limit") int limit, @Param("v1") String v1, @Param("v2") String v2);
+    List<TFile> gearDirContent(@Param("dirId") UUID dirId, @Param("offset") int offset, @Param("limit") int limit, @Param("scope") Scope scope);
 
-    List<String> lsDirLabels(@Param("dirId") UUID dirId, @Param("v1") String v1);
+    List<String> lsDirLabels(@Param("dirId") UUID dirId, @Param("scope") Scope scope);
 
-    List<TFile> searchContent(@Param("query") String query, @Param("dirId") UUID dirId, @Param("offset") int offset, @Param("limit") int limit, @Param("v1") String v1,
-                              @Param("v2") String v2);
+    List<TFile> searchContent(@Param("query") String query, @Param("dirId") UUID dirId, @Param("offset") int offset, @Param("limit") int limit, @Param("scope") Scope scope);
 
-    TFile getEntry(@Param("id") UUID id, @Param("v1") String v1, @Param("v2") String v2);
+    TFile getEntry(@Param("id") UUID id, @Param("scope") Scope scope);
 
-    void rmList(@Param("uuids") List<UUID> uuids, @Param("t") String t);
+    void rmList(@Param("uuids") List<UUID> uuids, @Param("scope") Scope scope);
 
-    List<TFile> getTree(@Param("id") UUID id, @Param("v1") String v1);
+    List<TFile> getTree(@Param("id") UUID id, @Param("scope") Scope scope);
 
-    TFile getParent(@Param("id") UUID id, @Param("v1") String v1, @Param("v2") String v2);
+    TFile getParent(@Param("id") UUID id, @Param("scope") Scope scope);
 }
@@ -0,0 +1,51 @@
+package sql;
+
+/**
+ * Where a user's entries are for the mappers: the user's own table and views, named in the statement, or the owner's
+ * part of the shared entries table, passed as a parameter.
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+public final class Scope {
+    private final boolean shared;
+    private final long owner;
+    private final String table, view, paths;
+
+    private Scope(final boolean shared, final long owner, final String table, final String view, final String paths) {
+        this.shared = shared;
+        this.owner = owner;
+        this.table = table;
+        this.view = view;
+        this.paths = paths;
+    }
+
+    public static Scope tables(final String table, final String view, final String paths) {
+        return new Scope(false, 0, table, view, paths);
+    }
+
+    public static Scope entries(final long owner) {
+        return new Scope(true, owner, null, null, null);
+    }
+
+    public boolean isShared() {
+        return shared;
+    }
+
+    public long getOwner() {
+        return owner;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String getView() {
+        return view;
+    }
+
+    public String getPaths() {
+        return paths;
+    }
+}
@@ -22,6 +22,7 @@ public interface ShareMapper {
     int countEntryGrants(@Param("entryId") UUID entryId);
     Share getEntryLink(@Param("entryId") UUID entryId);
     List<Share> getEntryShares(@Param("entryId") UUID entryId, @Param("owner") long owner);
+    List<Share> getEntriesShares(@Param("entryIds") List<UUID> entryIds, @Param("owner") long owner);
 
     void changeGrantRw(@Param("entryId") UUID entryId, @Param("offset") int offset, @Param("owner") long owner);
 }
@@ -28,36 +28,62 @@ public interface TFileSystem {
     List<String> selectShareViewsLike(@Param("query") String query);
 
     void makeEntry(@Param("id") UUID id, @Param("name") String name, @Param("parentId") UUID parentId, @Param("type") ContentType type, @Param("refId") String refId,
-                   @Param("options") int options, @Param("tableName") String tableName);
+                   @Param("options") int options, @Param("scope") Scope scope);
 
-    List<TFile> selectRootDirs(@Param("tableName") String tableName);
+    List<TFile> selectRootDirs(@Param("scope") Scope scope);
 
-    List<TFile> selectSubDirs(@Param("parentId") UUID parentId, @Param("tableName") String tableName);
+    List<TFile> selectSubDirs(@Param("parentId") UUID parentId, @Param("scope") Scope scope);
 
-    boolean isNameBusy(@Param("name") String name, @Param("parentId") UUID parentId, @Param("tableName") String tableName);
+    boolean isNameBusy(@Param("name") String name, @Param("parentId") UUID parentId, @Param("scope") Scope scope);
 
-    void dropEntry(@Param("name") String name, @Param("parentId") UUID parentId, @Param("owner") long owner, @Param("viewName") String viewName);
+    void dropEntry(@Param("name") String name, @Param("parentId") UUID parentId, @Param("scope") Scope scope);
 
-    void updateEntry(@Param("name") String name, @Param("parentId") UUID parentId, @Param("options") int options, @Param("id") UUID id, @Param("owner") long owner,
-                     @Param("tableName") String tableName);
+    void unlinkEntry(@Param("id") UUID id, @Param("parentId") UUID parentId, @Param("scope") Scope scope);
 
-    boolean isEntryExist(@Param("name") String name, @Param("parentId") UUID parentId, @Param("viewName") String viewName);
+    void updateEntry(@Param("name") String name, @Param("parentId") UUID parentId, @Param("options") int options, @Param("id") UUID id, @Param("scope") Scope scope);
 
-    List<Long> selectServiceWindows(@Param("userId") long userId);
+    boolean isEntryExist(@Param("name") String name, @Param("parentId") UUID parentId, @Param("scope") Scope scope);
 
-    void deleteServiceWindows(@Param("userId") long userId);
+    // a select: delete .. returning, the caller has to force the commit
+    List<Long> takeServiceWindows(@Param("userId") long userId);
 
     void addServiceWin(@Param("messageId") long messageId, @Param("userId") long userId);
 
-    void updateLastMessageId(@Param("lastMessageId") long lastMessageId, @Param("userId") long userId);
-
     void dropLock(@Param("uuid") UUID uuid);
 
+    void dropLocks(@Param("uuids") List<UUID> uuids);
+
     void createLock(@Param("uuid") UUID uuid, @Param("salt") String salt, @Param("password") String password);
 
     Map<String, Object> selectEntryPassword(@Param("uuid") UUID uuid);
 
     boolean isTableMissed(@Param("tableName") String tableName);
 
-    boolean isViewMissed(@Param("viewName") String viewName);
+    void createSlotView(@Param("viewName") String viewName, @Param("storage") String storage, @Param("rootTableName") String rootTableName);
+
+    long nextSlot();
+
+    void addSlot(@Param("slot") long slot, @Param("rootId") UUID rootId);
+
+    int countFreeSlots();
+
+    // a select: update .. returning, the caller has to make sure it is committed
+    Map<String, Object> claimSlot(@Param("userId") long userId);
+
+    void addMount(@Param("consumer") long consumer, @Param("shareId") String shareId, @Param("owner") long owner, @Param("entryId") UUID entryId, @Param("holderId") UUID holderId);
+
+    void dropMounts(@Param("shareId") String shareId);
+
+    void copyEntries(@Param("owner") long owner, @Param("tableName") String tableName);
+
+    void fillPaths(@Param("owner") long owner);
+
+    void fillTree(@Param("owner") long owner);
+
+    void mountShareView(@Param("consumer") long consumer, @Param("shareId") String shareId, @Param("viewName") String viewName);
+
+    List<Long> selectTablesUsers(@Param("after") long after, @Param("limit") int limit);
+
+    int countTablesUsers();
+
 }
@@ -3,6 +3,7 @@ package sql;
 import org.apache.ibatis.annotations.Param;
 
 import java.util.Map;
+import java.util.UUID;
 
 /**
  * @author Denis Danilin | denis@danilin.name
@@ -10,15 +11,27 @@ import java.util.Map;
  * tfs ☭ sweat and blood
  */
 public interface UserMapper {
-    Map<String, Object> getUser(@Param("id") long id);
+    // a select: insert .. on conflict do nothing returning, the caller has to make sure it is committed
+    Map<String, Object> resolveUser(@Param("id") long id);
 
-    void insertUser(@Param("id") long id);
+    UUID findRoot(@Param("id") long id);
 
-    void updateUser(@Param("lastRefId") String lastRefId,
-                    @Param("lastText") String lastText,
-                    @Param("lastKbd") String lastKeyboard,
-                    @Param("data") String data,
-                    @Param("id") long id);
+    String selectStorage(@Param("id") long id);
 
-    boolean isUserMissed(@Param("id") long id);
+    // null if there is no such user
+    Boolean lockInEntries(@Param("id") long id);
+
+    void markInEntries(@Param("id") long id);
+
+    void setRootId(@Param("rootId") UUID rootId, @Param("id") long id);
+
+    // state and the last message id are set only if the corresponding flag is
+    void saveUser(@Param("id") long id,
+                  @Param("state") boolean state,
+                  @Param("lastRefFp") long lastRefFp,
+                  @Param("lastTextFp") long lastTextFp,
+                  @Param("lastKbdFp") long lastKbdFp,
+                  @Param("data") String data,
+                  @Param("message") boolean message,
+                  @Param("lastMessageId") long lastMessageId);
 }
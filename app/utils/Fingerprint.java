@@ -0,0 +1,36 @@
+package utils;
+
+/**
+ * 64-bit fingerprints of rendered content, to tell whether a message has to be edited without keeping what it shows.
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+public final class Fingerprint {
+    private Fingerprint() {}
+
+    /**
+     * FNV-1a over the chars with a final avalanche.
+     *
+     * @return 0 for null or empty string only
+     */
+    public static long of(final String s) {
+        if (s == null || s.isEmpty())
+            return 0;
+
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+
+        return h == 0 ? 1 : h;
+    }
+}
@@ -0,0 +1,55 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free sliding window of recently seen ids, for monotonously growing ids like telegram's update_id. An id is
+ * kept in the slot id % size until a newer one takes it, so the window remembers the last 'size' ids.
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+public final class IdWindow {
+    private final AtomicLongArray slots;
+    private final int mask;
+
+    public IdWindow(final int size) {
+        final int capacity = Integer.highestOneBit(Math.max(2, size - 1) << 1);
+
+        slots = new AtomicLongArray(capacity);
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return true if the id was not seen within the window, and it is marked as seen now
+     */
+    public boolean mark(final long id) {
+        final int idx = (int) (id & mask);
+        final long stored = id + 1; // 0 is an empty slot
+
+        while (true) {
+            final long current = slots.get(idx);
+
+            if (current == stored)
+                return false;
+
+            if (current > stored) // slot is already taken by a newer id: this one is older than the window
+                return true;
+
+            if (slots.compareAndSet(idx, current, stored))
+                return true;
+        }
+    }
+
+    /**
+     * Unmarks the id, if it is still in the window, so its redelivery is not treated as a duplicate.
+     */
+    public void forget(final long id) {
+        slots.compareAndSet((int) (id & mask), id + 1, 0);
+    }
+
+    public int size() {
+        return mask + 1;
+    }
+}
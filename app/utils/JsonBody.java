@@ -0,0 +1,140 @@
+package utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+
+/**
+ * Request body of a bot api call, written as utf-8 json straight into a byte buffer, without a tree in between.
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+public final class JsonBody {
+    private static final JsonFactory factory = new JsonFactory();
+
+    private final ByteArrayBuilder buffer = new ByteArrayBuilder(256);
+    private final JsonGenerator g;
+
+    public JsonBody() {
+        try {
+            g = factory.createGenerator(buffer);
+            g.writeStartObject();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public JsonBody put(final String name, final long value) {
+        try {
+            g.writeNumberField(name, value);
+            return this;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public JsonBody put(final String name, final boolean value) {
+        try {
+            g.writeBooleanField(name, value);
+            return this;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public JsonBody put(final String name, final String value) {
+        try {
+            g.writeStringField(name, value);
+            return this;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param json already encoded value, written as is
+     */
+    public JsonBody putRaw(final String name, final String json) {
+        try {
+            g.writeFieldName(name);
+            g.writeRawValue(json);
+            return this;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public JsonBody putArray(final String name, final Collection<Long> values) {
+        try {
+            g.writeArrayFieldStart(name);
+            for (final Long v : values)
+                g.writeNumber(v);
+            g.writeEndArray();
+            return this;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Copies all fields of the encoded json object into this one.
+     */
+    public JsonBody putAll(final String jsonObject) {
+        try (final JsonParser p = factory.createParser(jsonObject)) {
+            if (p.nextToken() != JsonToken.START_OBJECT)
+                return this;
+
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                g.writeFieldName(p.getCurrentName());
+                p.nextToken();
+                g.copyCurrentStructure(p);
+            }
+
+            return this;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Opens a nested object, fields go there until {@link #end()}.
+     */
+    public JsonBody object(final String name) {
+        try {
+            g.writeObjectFieldStart(name);
+            return this;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public JsonBody end() {
+        try {
+            g.writeEndObject();
+            return this;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Closes the body, no writes after it.
+     */
+    public byte[] bytes() {
+        try {
+            g.writeEndObject();
+            g.close();
+            return buffer.toByteArray();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Streaming decoder of bot api replies: reads ok, result.message_id, description and parameters.retry_after, the
+ * echoed message and everything else is skipped without being materialized.
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+public final class ReplyDecoder {
+    private static final JsonFactory factory = new JsonFactory();
+
+    private ReplyDecoder() {}
+
+    /**
+     * @return decoded reply, not ok with the description "No reply" if the body is not a json object
+     * @throws IOException if the body is not json at all
+     */
+    public static Result decode(final byte[] data) throws IOException {
+        final Result r = new Result();
+
+        try (final JsonParser p = factory.createParser(data)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                r.description = "No reply";
+                return r;
+            }
+
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = p.getCurrentName();
+                final JsonToken t = p.nextToken();
+
+                switch (field) {
+                    case "ok":
+                        r.ok = t == JsonToken.VALUE_TRUE;
+                        break;
+                    case "description":
+                        r.description = p.getValueAsString();
+                        break;
+                    case "result":
+                        if (t == JsonToken.START_OBJECT)
+                            r.messageId = readLong(p, "message_id");
+                        else
+                            p.skipChildren();
+                        break;
+                    case "parameters":
+                        if (t == JsonToken.START_OBJECT)
+                            r.retryAfter = readLong(p, "retry_after");
+                        else
+                            p.skipChildren();
+                        break;
+                    default:
+                        p.skipChildren();
+                        break;
+                }
+            }
+        }
+
+        return r;
+    }
+
+    // the numeric field of the current object, 0 if absent; the parser is left at the object's end
+    private static long readLong(final JsonParser p, final String name) throws IOException {
+        long value = 0;
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = p.getCurrentName();
+            p.nextToken();
+
+            if (name.equals(field))
+                value = p.getValueAsLong();
+            else
+                p.skipChildren();
+        }
+
+        return value;
+    }
+
+    public static final class Result {
+        public boolean ok;
+        public long messageId, retryAfter;
+        public String description = "";
+    }
+}
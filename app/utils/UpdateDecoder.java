@@ -0,0 +1,302 @@
+package utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import model.ContentType;
+import model.Update;
+import play.libs.Json;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One pass streaming decoder of telegram updates: reads the fields {@link Update} holds, everything else is skipped
+ * without being materialized.
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+public final class UpdateDecoder {
+    private static final JsonFactory factory = new JsonFactory();
+
+    private UpdateDecoder() {}
+
+    /**
+     * @return decoded webhook payload or null if it is not a json object
+     */
+    public static Update decode(final byte[] data) throws IOException {
+        try (final JsonParser p = factory.createParser(data)) {
+            return p.nextToken() == JsonToken.START_OBJECT ? readUpdate(p) : null;
+        }
+    }
+
+    /**
+     * @return updates of the getUpdates reply, null if the reply is not ok
+     */
+    public static List<Update> decodeBatch(final byte[] data) throws IOException {
+        try (final JsonParser p = factory.createParser(data)) {
+            if (p.nextToken() != JsonToken.START_OBJECT)
+                return null;
+
+            boolean ok = false;
+            List<Update> list = null;
+
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = p.getCurrentName();
+                final JsonToken t = p.nextToken();
+
+                if ("ok".equals(field))
+                    ok = t == JsonToken.VALUE_TRUE;
+                else if ("result".equals(field) && t == JsonToken.START_ARRAY) {
+                    list = new ArrayList<>(0);
+
+                    while (p.nextToken() == JsonToken.START_OBJECT)
+                        list.add(readUpdate(p));
+                } else
+                    p.skipChildren();
+            }
+
+            return ok ? list : null;
+        }
+    }
+
+    private static Update readUpdate(final JsonParser p) throws IOException {
+        final State s = new State();
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = p.getCurrentName();
+            final JsonToken t = p.nextToken();
+
+            switch (field) {
+                case "update_id":
+                    s.id = p.getValueAsLong();
+                    break;
+                case "message":
+                    if (t == JsonToken.START_OBJECT)
+                        readMessage(p, s);
+                    else
+                        p.skipChildren();
+                    break;
+                case "callback_query":
+                    if (t == JsonToken.START_OBJECT)
+                        readCallback(p, s);
+                    else
+                        p.skipChildren();
+                    break;
+                default:
+                    p.skipChildren();
+                    break;
+            }
+        }
+
+        return new Update(s.id, s.userId, s.firstName, s.lastName, s.username, s.lang, s.messageId, s.text, s.caption, s.attachment, s.callbackId, s.callbackData);
+    }
+
+    private static void readCallback(final JsonParser p, final State s) throws IOException {
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = p.getCurrentName();
+            final JsonToken t = p.nextToken();
+
+            if ("id".equals(field))
+                s.callbackId = p.getValueAsString();
+            else if ("data".equals(field))
+                s.callbackData = p.getValueAsString();
+            else if ("from".equals(field) && t == JsonToken.START_OBJECT)
+                readFrom(p, s);
+            else
+                p.skipChildren();
+        }
+
+        if (s.callbackId == null)
+            s.callbackId = "";
+    }
+
+    private static void readMessage(final JsonParser p, final State s) throws IOException {
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = p.getCurrentName();
+            final JsonToken t = p.nextToken();
+
+            switch (field) {
+                case "message_id":
+                    s.messageId = p.getValueAsLong();
+                    break;
+                case "from":
+                    if (t == JsonToken.START_OBJECT)
+                        readFrom(p, s);
+                    else
+                        p.skipChildren();
+                    break;
+                case "text":
+                    s.text = p.getValueAsString();
+                    break;
+                case "caption":
+                    s.caption = p.getValueAsString();
+                    break;
+                case "photo":
+                    if (t == JsonToken.START_ARRAY)
+                        s.attach(readPhoto(p));
+                    else
+                        p.skipChildren();
+                    break;
+                case "video":
+                    s.attach(readFile(p, ContentType.VIDEO));
+                    break;
+                case "document":
+                    s.attach(readFile(p, ContentType.DOCUMENT));
+                    break;
+                case "audio":
+                    s.attach(readFile(p, ContentType.AUDIO));
+                    break;
+                case "voice":
+                    s.attach(readFile(p, ContentType.VOICE));
+                    break;
+                case "sticker":
+                    s.attach(readFile(p, ContentType.STICKER));
+                    break;
+                case "contact":
+                    if (t == JsonToken.START_OBJECT)
+                        s.attach(readContact(p));
+                    else
+                        p.skipChildren();
+                    break;
+                default:
+                    p.skipChildren();
+                    break;
+            }
+        }
+    }
+
+    private static void readFrom(final JsonParser p, final State s) throws IOException {
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = p.getCurrentName();
+            p.nextToken();
+
+            switch (field) {
+                case "id":
+                    s.userId = p.getValueAsLong();
+                    break;
+                case "first_name":
+                    s.firstName = p.getValueAsString();
+                    break;
+                case "last_name":
+                    s.lastName = p.getValueAsString();
+                    break;
+                case "username":
+                    s.username = p.getValueAsString();
+                    break;
+                case "language_code":
+                    s.lang = p.getValueAsString();
+                    break;
+                default:
+                    p.skipChildren();
+                    break;
+            }
+        }
+    }
+
+    // the biggest size, the last one of equals
+    private static Update.Attachment readPhoto(final JsonParser p) throws IOException {
+        String fileId = null, uniqueId = null;
+        long best = -1;
+
+        while (p.nextToken() == JsonToken.START_OBJECT) {
+            String id = null, uniq = null;
+            long size = 0;
+
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = p.getCurrentName();
+                p.nextToken();
+
+                if ("file_id".equals(field))
+                    id = p.getValueAsString();
+                else if ("file_unique_id".equals(field))
+                    uniq = p.getValueAsString();
+                else if ("file_size".equals(field))
+                    size = p.getValueAsLong();
+                else
+                    p.skipChildren();
+            }
+
+            if (size >= best) {
+                best = size;
+                fileId = id;
+                uniqueId = uniq;
+            }
+        }
+
+        return best < 0 ? null : new Update.Attachment(ContentType.PHOTO, fileId, uniqueId, null);
+    }
+
+    private static Update.Attachment readFile(final JsonParser p, final ContentType type) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) {
+            p.skipChildren();
+            return null;
+        }
+
+        String fileId = null, uniqueId = null, fileName = null;
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = p.getCurrentName();
+            p.nextToken();
+
+            if ("file_id".equals(field))
+                fileId = p.getValueAsString();
+            else if ("file_unique_id".equals(field))
+                uniqueId = p.getValueAsString();
+            else if ("file_name".equals(field) && type == ContentType.DOCUMENT) // only documents are named by telegram's name
+                fileName = p.getValueAsString();
+            else
+                p.skipChildren();
+        }
+
+        return new Update.Attachment(type, fileId, uniqueId, fileName);
+    }
+
+    // contact is small and is stored as is, so it is the only part read as a tree
+    private static Update.Attachment readContact(final JsonParser p) throws IOException {
+        final JsonNode c = Json.mapper().readTree(p);
+
+        return new Update.Attachment(ContentType.CONTACT, null, null, null,
+                c.path("user_id").asLong(),
+                c.has("first_name") ? c.get("first_name").asText() : null,
+                c.has("last_name") ? c.get("last_name").asText() : null,
+                c.has("username") ? c.get("username").asText() : null,
+                c.has("phone_number") ? c.get("phone_number").asText() : null,
+                c.toString());
+    }
+
+    private static final class State {
+        private long id, userId, messageId;
+        private String firstName, lastName, username, lang, text, caption, callbackId, callbackData;
+        private Update.Attachment attachment;
+
+        // same precedence as message types were checked before: photo, video, document, audio, voice, sticker, contact
+        private void attach(final Update.Attachment a) {
+            if (a != null && (attachment == null || rank(a.type) < rank(attachment.type)))
+                attachment = a;
+        }
+
+        private static int rank(final ContentType type) {
+            switch (type) {
+                case PHOTO:
+                    return 0;
+                case VIDEO:
+                    return 1;
+                case DOCUMENT:
+                    return 2;
+                case AUDIO:
+                    return 3;
+                case VOICE:
+                    return 4;
+                case STICKER:
+                    return 5;
+                default:
+                    return 6;
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.RawValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.JsonBody;
+import utils.ReplyDecoder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Both ends of a bot api call: decoding a reply with ReplyDecoder against the tree doCall used to read it from, and
+ * encoding a sendMessage body with JsonBody against the ObjectNode it used to be built as. Allocation is what to look at:
+ * sbt "bench/jmh:run -prof gc bench.CallBench".
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallBench {
+    // a sendPhoto reply echoes the whole message: sizes, caption, keyboard
+    private static final byte[] reply = ("{\"ok\":true,\"result\":{\"message_id\":7812,"
+            + "\"from\":{\"id\":987654,\"is_bot\":true,\"first_name\":\"tfs\",\"username\":\"tfs_bot\"},"
+            + "\"chat\":{\"id\":1234567,\"first_name\":\"Denis\",\"last_name\":\"Danilin\",\"username\":\"ddanilin\",\"type\":\"private\"},\"date\":1602870000,"
+            + "\"photo\":[{\"file_id\":\"AgACAgIAAxkDAAIea2-s\",\"file_unique_id\":\"AQADs\",\"file_size\":15312,\"width\":90,\"height\":67},"
+            + "{\"file_id\":\"AgACAgIAAxkDAAIea2-m\",\"file_unique_id\":\"AQADm\",\"file_size\":74216,\"width\":320,\"height\":240},"
+            + "{\"file_id\":\"AgACAgIAAxkDAAIea2-x\",\"file_unique_id\":\"AQADx\",\"file_size\":312456,\"width\":800,\"height\":600},"
+            + "{\"file_id\":\"AgACAgIAAxkDAAIea2-y\",\"file_unique_id\":\"AQADy\",\"file_size\":1024718,\"width\":1280,\"height\":960}],"
+            + "\"caption\":\"/photos/2020/summer/img_0001.jpg\",\"caption_entities\":[{\"offset\":0,\"length\":32,\"type\":\"bold\"}],"
+            + "\"reply_markup\":{\"inline_keyboard\":[[{\"text\":\"\\u2190\",\"callback_data\":\"rw:0\"},{\"text\":\"\\u270f\",\"callback_data\":\"rn:0\"},"
+            + "{\"text\":\"\\ud83d\\uddd1\",\"callback_data\":\"dl:0\"},{\"text\":\"\\u2192\",\"callback_data\":\"fw:0\"}],"
+            + "[{\"text\":\"\\ud83d\\udd19\",\"callback_data\":\"cd:0\"}]]}}}").getBytes(StandardCharsets.UTF_8);
+
+    // as Keyboard.encoded() gives it
+    private static final String keyboard = "{\"inline_keyboard\":[[{\"text\":\"\\ud83d\\udcc1 summer\",\"callback_data\":\"od:0\"},"
+            + "{\"text\":\"\\ud83d\\udcc1 winter\",\"callback_data\":\"od:1\"}],[{\"text\":\"\\ud83d\\uddbc img_0001.jpg\",\"callback_data\":\"of:2\"},"
+            + "{\"text\":\"\\ud83d\\uddbc img_0002.jpg\",\"callback_data\":\"of:3\"}],[{\"text\":\"\\u2190\",\"callback_data\":\"rw:0\"},"
+            + "{\"text\":\"\\u2192\",\"callback_data\":\"fw:0\"}]]}";
+
+    private static final String text = "<b>/photos/2020</b>\n12 entries, 2 dirs";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @Benchmark
+    public long replyStreaming() throws IOException {
+        final ReplyDecoder.Result r = ReplyDecoder.decode(reply);
+
+        return r.ok ? r.messageId : -1;
+    }
+
+    @Benchmark
+    public long replyTree() throws IOException {
+        final JsonNode j = mapper.readTree(reply);
+
+        return j.get("ok").asBoolean()
+                ? j.has("result") && j.get("result").has("message_id") ? j.get("result").get("message_id").asLong() : 0
+                : -1;
+    }
+
+    @Benchmark
+    public byte[] bodyStreaming() {
+        return new JsonBody()
+                .put("chat_id", 1234567L)
+                .put("text", text)
+                .put("disable_web_page_preview", true)
+                .put("parse_mode", "HTML")
+                .putRaw("reply_markup", keyboard)
+                .bytes();
+    }
+
+    @Benchmark
+    public byte[] bodyTree() throws IOException {
+        final ObjectNode node = mapper.createObjectNode();
+
+        node.put("chat_id", 1234567L);
+        node.put("text", text);
+        node.put("disable_web_page_preview", true);
+        node.put("parse_mode", "HTML");
+        node.putRawValue("reply_markup", new RawValue(keyboard));
+
+        return mapper.writeValueAsBytes(node);
+    }
+}
@@ -0,0 +1,133 @@
+package bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import model.ContentType;
+import model.Update;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.UpdateDecoder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Webhook payload decoding: the streaming UpdateDecoder against the jackson tree the handler used to build, reading
+ * the same fields the way route() did. Allocation is what to look at: sbt "bench/jmh:run -prof gc bench.DecodeBench".
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBench {
+    private static final String from = "\"from\":{\"id\":1234567,\"is_bot\":false,\"first_name\":\"Denis\",\"last_name\":\"Danilin\",\"username\":\"ddanilin\",\"language_code\":\"ru\"}";
+    private static final String chat = "\"chat\":{\"id\":1234567,\"first_name\":\"Denis\",\"last_name\":\"Danilin\",\"username\":\"ddanilin\",\"type\":\"private\"}";
+
+    private static final String text = "{\"update_id\":100001,\"message\":{\"message_id\":501," + from + "," + chat + ",\"date\":1602870000,\"text\":\"some new dir\"}}";
+
+    // callbacks echo the whole bot's message with its keyboard
+    private static final String callback = "{\"update_id\":100002,\"callback_query\":{\"id\":\"5302498147029856120\"," + from + ",\"message\":{\"message_id\":502,"
+            + "\"from\":{\"id\":987654,\"is_bot\":true,\"first_name\":\"tfs\",\"username\":\"tfs_bot\"}," + chat + ",\"date\":1602870001,"
+            + "\"text\":\"/photos/2020\\n12 entries\",\"reply_markup\":{\"inline_keyboard\":["
+            + "[{\"text\":\"\\ud83d\\udcc1 summer\",\"callback_data\":\"od:0\"},{\"text\":\"\\ud83d\\udcc1 winter\",\"callback_data\":\"od:1\"}],"
+            + "[{\"text\":\"\\ud83d\\uddbc img_0001.jpg\",\"callback_data\":\"of:2\"},{\"text\":\"\\ud83d\\uddbc img_0002.jpg\",\"callback_data\":\"of:3\"}],"
+            + "[{\"text\":\"\\ud83d\\uddbc img_0003.jpg\",\"callback_data\":\"of:4\"},{\"text\":\"\\ud83d\\uddbc img_0004.jpg\",\"callback_data\":\"of:5\"}],"
+            + "[{\"text\":\"\\u2190\",\"callback_data\":\"rw:0\"},{\"text\":\"\\u2192\",\"callback_data\":\"fw:0\"}]]}},"
+            + "\"chat_instance\":\"-2947012483922\",\"data\":\"od:1\"}}";
+
+    private static final String photo = "{\"update_id\":100003,\"message\":{\"message_id\":503," + from + "," + chat + ",\"date\":1602870002,\"photo\":["
+            + "{\"file_id\":\"AgACAgIAAxkBAAIBc2-s\",\"file_unique_id\":\"AQADs\",\"file_size\":15312,\"width\":90,\"height\":67},"
+            + "{\"file_id\":\"AgACAgIAAxkBAAIBc2-m\",\"file_unique_id\":\"AQADm\",\"file_size\":74216,\"width\":320,\"height\":240},"
+            + "{\"file_id\":\"AgACAgIAAxkBAAIBc2-x\",\"file_unique_id\":\"AQADx\",\"file_size\":312456,\"width\":800,\"height\":600},"
+            + "{\"file_id\":\"AgACAgIAAxkBAAIBc2-y\",\"file_unique_id\":\"AQADy\",\"file_size\":1024718,\"width\":1280,\"height\":960}],\"caption\":\"sea\"}}";
+
+    private static final String document = "{\"update_id\":100004,\"message\":{\"message_id\":504," + from + "," + chat + ",\"date\":1602870003,\"document\":"
+            + "{\"file_name\":\"report.pdf\",\"mime_type\":\"application/pdf\",\"thumb\":{\"file_id\":\"AAQCAgADtw\",\"file_unique_id\":\"AQADt\",\"file_size\":3120,"
+            + "\"width\":226,\"height\":320},\"file_id\":\"BQACAgIAAxkBAAIBd\",\"file_unique_id\":\"AgADtw\",\"file_size\":482133}}}";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @Param({"text", "callback", "photo", "document"})
+    public String kind;
+
+    private byte[] payload;
+
+    @Setup
+    public void setup() {
+        switch (kind) {
+            case "callback":
+                payload = callback.getBytes(StandardCharsets.UTF_8);
+                break;
+            case "photo":
+                payload = photo.getBytes(StandardCharsets.UTF_8);
+                break;
+            case "document":
+                payload = document.getBytes(StandardCharsets.UTF_8);
+                break;
+            default:
+                payload = text.getBytes(StandardCharsets.UTF_8);
+                break;
+        }
+    }
+
+    @Benchmark
+    public Update streaming() throws IOException {
+        return UpdateDecoder.decode(payload);
+    }
+
+    @Benchmark
+    public Update tree() throws IOException {
+        return fromTree(mapper.readTree(payload));
+    }
+
+    // what route() read from the tree, into the same Update to keep both sides comparable
+    private static Update fromTree(final JsonNode js) {
+        if (js.has("callback_query")) {
+            final JsonNode query = js.get("callback_query");
+            final JsonNode f = query.get("from");
+
+            return new Update(js.get("update_id").asLong(), f.get("id").asLong(), text(f, "first_name"), text(f, "last_name"), text(f, "username"),
+                    text(f, "language_code"), 0, null, null, null, query.get("id").asText(), query.get("data").asText());
+        }
+
+        final JsonNode msg = js.get("message");
+        final JsonNode f = msg.get("from");
+        Update.Attachment attachment = null;
+
+        if (msg.has("photo") && msg.get("photo").size() > 0) {
+            JsonNode best = null;
+
+            for (final JsonNode size : msg.get("photo"))
+                if (best == null || size.get("file_size").asLong() >= best.get("file_size").asLong())
+                    best = size;
+
+            attachment = new Update.Attachment(ContentType.PHOTO, best.get("file_id").asText(), best.get("file_unique_id").asText(), null);
+        } else if (msg.has("document")) {
+            final JsonNode d = msg.get("document");
+            attachment = new Update.Attachment(ContentType.DOCUMENT, d.get("file_id").asText(), d.get("file_unique_id").asText(), d.get("file_name").asText());
+        }
+
+        return new Update(js.get("update_id").asLong(), f.get("id").asLong(), text(f, "first_name"), text(f, "last_name"), text(f, "username"),
+                text(f, "language_code"), msg.get("message_id").asLong(), text(msg, "text"), text(msg, "caption"), attachment, null, null);
+    }
+
+    private static String text(final JsonNode node, final String field) {
+        return node.has(field) ? node.get(field).asText() : null;
+    }
+}
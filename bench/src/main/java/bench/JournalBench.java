@@ -0,0 +1,121 @@
+package bench;
+
+import com.typesafe.config.ConfigFactory;
+import model.ContentType;
+import model.Update;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import play.inject.ApplicationLifecycle;
+import services.UpdateJournal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Appends per second of the update journal, in a temporary directory. durable is what the intake does: append, wait
+ * for the group commit, mark done; with many threads one fsync covers many appends. append alone shows the cost of
+ * writing a record without waiting for the disk. sbt "bench/jmh:run bench.JournalBench", the disk under java.io.tmpdir
+ * is the one measured.
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JournalBench {
+    private final List<Callable<? extends CompletionStage<?>>> stopHooks = new ArrayList<>(1);
+
+    private Path dir;
+    private UpdateJournal journal;
+    private Update update;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("tfs-journal");
+
+        final Map<String, Object> settings = new HashMap<>();
+        settings.put("service.journal.enabled", true);
+        settings.put("service.journal.dir", dir.toString());
+        settings.put("service.journal.segment_size", "64m");
+
+        journal = new UpdateJournal(ConfigFactory.parseMap(settings), new ApplicationLifecycle() {
+            @Override
+            public void addStopHook(final Callable<? extends CompletionStage<?>> hook) {
+                stopHooks.add(hook);
+            }
+
+            @Override
+            public play.api.inject.ApplicationLifecycle asScala() {
+                return null;
+            }
+        });
+
+        update = new Update(100003, 1234567, "Denis", "Danilin", "ddanilin", "ru", 503, null, "sea",
+                new Update.Attachment(ContentType.PHOTO, "AgACAgIAAxkBAAIBc2-y", "AQADy", null), null, null);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        for (final Callable<? extends CompletionStage<?>> hook : stopHooks)
+            hook.call();
+
+        try (final Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void durable1() {
+        durable();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void durable16() {
+        durable();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void durable64() {
+        durable();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void append16() {
+        journal.done(journal.append(update));
+    }
+
+    private void durable() {
+        final UpdateJournal.Entry entry = journal.append(update);
+        journal.flushed().toCompletableFuture().join();
+        journal.done(entry);
+    }
+}
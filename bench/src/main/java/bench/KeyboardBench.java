@@ -0,0 +1,99 @@
+package bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import model.CommandType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import services.TgApi;
+import utils.Strings;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering a keyboard the way a view does, from a fresh Keyboard every time: the tree Keyboard.toJson used to build
+ * and then write out, against encoded() with its structure keyed cache. The dir view keyboard is all shared buttons;
+ * the page of a listing has ten entry buttons made per render. Allocation is what to look at:
+ * sbt "bench/jmh:run -prof gc bench.KeyboardBench".
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyboardBench {
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final String[] names = {"summer", "winter", "img_0001.jpg", "img_0002.jpg", "img_0003.jpg", "img_0004.jpg", "report.pdf",
+            "notes \"draft\"", "фото", "archive.zip"};
+
+    @Benchmark
+    public String dirEncoded() {
+        return new TgApi.Keyboard()
+                .button(CommandType.openParent.b(), CommandType.mkLabel.b(), CommandType.mkDir.b(), CommandType.gear.b())
+                .encoded();
+    }
+
+    @Benchmark
+    public String dirTree() {
+        final ObjectNode node = mapper.createObjectNode();
+        final ArrayNode row = node.withArray("inline_keyboard").addArray();
+
+        button(row, Strings.Uni.goUp, CommandType.openParent.toString());
+        button(row, Strings.Uni.label, CommandType.mkLabel.toString());
+        button(row, Strings.Uni.folder, CommandType.mkDir.toString());
+        button(row, Strings.Uni.gear, CommandType.gear.toString());
+
+        return node.toString();
+    }
+
+    @Benchmark
+    public String pageEncoded() {
+        final TgApi.Keyboard kbd = new TgApi.Keyboard().button(CommandType.openParent.b(), CommandType.mkDir.b(), CommandType.gear.b());
+
+        for (int i = 0; i < names.length; i++)
+            kbd.newLine().button(CommandType.openDir.b(names[i], i));
+
+        kbd.newLine().button(CommandType.rewind.b(), CommandType.forward.b());
+
+        return kbd.encoded();
+    }
+
+    @Benchmark
+    public String pageTree() {
+        final ObjectNode node = mapper.createObjectNode();
+        final ArrayNode rows = node.withArray("inline_keyboard");
+
+        ArrayNode row = rows.addArray();
+        button(row, Strings.Uni.goUp, CommandType.openParent.toString());
+        button(row, Strings.Uni.folder, CommandType.mkDir.toString());
+        button(row, Strings.Uni.gear, CommandType.gear.toString());
+
+        for (int i = 0; i < names.length; i++)
+            button(rows.addArray(), names[i], CommandType.openDir.toString() + i);
+
+        row = rows.addArray();
+        button(row, Strings.Uni.rewind, CommandType.rewind.toString());
+        button(row, Strings.Uni.forward, CommandType.forward.toString());
+
+        return node.toString();
+    }
+
+    private static void button(final ArrayNode row, final String text, final String data) {
+        final ObjectNode b = row.addObject();
+        b.put("text", text);
+        b.put("callback_data", data);
+    }
+}
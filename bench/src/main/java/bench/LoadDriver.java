@@ -0,0 +1,314 @@
+package bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load driver: plays N telegram users against a running bot. Each user posts a synthetic webhook update, waits for the
+ * bot to render its answer into the stub api (a send* or editMessage* call for the user's chat), thinks a while and goes
+ * on: taps a button of the last keyboard it got, uploads a document or types a text. Latency is measured from the
+ * webhook post to that render call.
+ * <p>
+ * The bot has to run with service.bot.api_url = "http://localhost:&lt;stub.port&gt;/bot/" and a local postgres. Settings
+ * are system properties: target, users, duration (s), think (ms), timeout (ms), mix (tap,upload,text percents),
+ * stub.port, stub.latency (ms), stub.jitter (ms), stub.errors and stub.flood (rates 0..1).
+ * <p>
+ * compare (user counts, comma separated, e.g. 1000,5000) runs one round per count, one after another against the same
+ * bot, and ends with a table of them. The bot's service.pipeline.mode is its own setting: to compare the pool mode with
+ * the virtual one, run the rounds once against the bot in each mode.
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+public final class LoadDriver {
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final String[] words = {"report", "photo", "2020", "tax", "music", "backup", "notes", "cat"};
+
+    private final String target;
+    private final long thinkMs, timeoutMs;
+    private final int tapShare, uploadShare;
+
+    private final ConcurrentHashMap<Long, SimUser> users = new ConcurrentHashMap<>();
+    private final ExecutorService workers;
+    private final ScheduledExecutorService timer = Executors.newScheduledThreadPool(2);
+    private final AtomicLong updateIds = new AtomicLong(1), messageIds = new AtomicLong(1);
+
+    private final List<Long> latencies = new ArrayList<>(100_000);
+    private final LongAdder posted = new LongAdder(), refused = new LongAdder(), failed = new LongAdder(), rendered = new LongAdder(), timedOut = new LongAdder();
+
+    private volatile boolean running = true;
+
+    private LoadDriver(final String target, final int users, final long thinkMs, final long timeoutMs, final int[] mix) {
+        this.target = target;
+        this.thinkMs = thinkMs;
+        this.timeoutMs = timeoutMs;
+        tapShare = mix[0];
+        uploadShare = mix[0] + mix[1];
+        workers = Executors.newFixedThreadPool(Math.min(512, Math.max(4, users)));
+
+        for (int i = 0; i < users; i++)
+            this.users.put(1_000_000L + i, new SimUser(1_000_000L + i));
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int[] counts = Arrays.stream(System.getProperty("compare", System.getProperty("users", "100")).split(",")).mapToInt(Integer::parseInt).toArray();
+        final int duration = Integer.getInteger("duration", 60);
+        final int[] mix = Arrays.stream(System.getProperty("mix", "70,20,10").split(",")).mapToInt(Integer::parseInt).toArray();
+
+        // renders go to the driver of the current round
+        final AtomicReference<LoadDriver> current = new AtomicReference<>();
+        final TgStub stub = new TgStub(Integer.getInteger("stub.port", 8081), Long.getLong("stub.latency", 50), Long.getLong("stub.jitter", 30),
+                Double.parseDouble(System.getProperty("stub.errors", "0")), Double.parseDouble(System.getProperty("stub.flood", "0")),
+                (method, chatId, body) -> current.get().onRender(method, chatId, body));
+        stub.start();
+
+        final List<String> rounds = new ArrayList<>(counts.length);
+
+        for (final int userCount : counts) {
+            final LoadDriver driver = new LoadDriver(System.getProperty("target", "http://localhost:9000/v1/handle"), userCount,
+                    Long.getLong("think", 300), Long.getLong("timeout", 5000), mix);
+            current.set(driver);
+            stub.reset();
+
+            System.out.println("Driving " + userCount + " users for " + duration + "s, mix " + Arrays.toString(mix));
+            final long started = System.nanoTime();
+
+            driver.users.values().forEach(u -> driver.timer.schedule(() -> driver.step(u, "/start"),
+                    ThreadLocalRandom.current().nextLong(1 + driver.thinkMs), TimeUnit.MILLISECONDS));
+
+            Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+            driver.running = false;
+            Thread.sleep(driver.timeoutMs);
+
+            final double seconds = (System.nanoTime() - started) / 1e9 - driver.timeoutMs / 1000d;
+            driver.report(seconds, stub);
+            rounds.add(driver.summary(userCount, seconds));
+
+            driver.workers.shutdownNow();
+            driver.timer.shutdownNow();
+        }
+
+        if (rounds.size() > 1) {
+            System.out.println("=====");
+            System.out.printf("%8s | %10s | %10s | %8s | %8s | %8s | %8s%n", "users", "posted/s", "rendered/s", "p50 ms", "p99 ms", "refused", "timeouts");
+            rounds.forEach(System.out::println);
+        }
+
+        stub.stop();
+    }
+
+    private void onRender(final String method, final long chatId, final JsonNode body) {
+        if (!method.startsWith("send") && !method.startsWith("editMessage"))
+            return;
+
+        final SimUser u = users.get(chatId);
+
+        if (u == null)
+            return;
+
+        final JsonNode kbd = body.path("reply_markup").path("inline_keyboard");
+        if (kbd.isArray()) {
+            final List<String> buttons = new ArrayList<>();
+            kbd.forEach(row -> row.forEach(b -> {
+                if (b.hasNonNull("callback_data"))
+                    buttons.add(b.get("callback_data").asText());
+            }));
+            u.buttons = buttons;
+        }
+
+        final CompletableFuture<Long> f = u.pending;
+        if (f != null)
+            f.complete(System.nanoTime());
+    }
+
+    private void step(final SimUser u, final String text) {
+        if (!running)
+            return;
+
+        final ObjectNode update = text != null ? message(u, text) : next(u);
+        final CompletableFuture<Long> render = new CompletableFuture<>();
+        u.pending = render;
+
+        workers.execute(() -> {
+            final long start = System.nanoTime();
+            final int status;
+
+            try {
+                status = post(mapper.writeValueAsBytes(update));
+            } catch (final IOException e) {
+                failed.increment();
+                later(u, thinkMs * 4);
+                return;
+            }
+
+            posted.increment();
+
+            if (status != 200) {
+                refused.increment();
+                later(u, thinkMs * 4);
+                return;
+            }
+
+            timer.schedule(() -> render.completeExceptionally(new TimeoutException()), timeoutMs, TimeUnit.MILLISECONDS);
+            render.whenComplete((at, e) -> {
+                if (e != null)
+                    timedOut.increment();
+                else {
+                    rendered.increment();
+                    synchronized (latencies) {
+                        latencies.add(at - start);
+                    }
+                }
+
+                later(u, thinkMs);
+            });
+        });
+    }
+
+    private void later(final SimUser u, final long meanMs) {
+        if (running)
+            timer.schedule(() -> step(u, null), ThreadLocalRandom.current().nextLong(1 + meanMs * 2), TimeUnit.MILLISECONDS);
+    }
+
+    // next action of the user by the mix
+    private ObjectNode next(final SimUser u) {
+        final int dice = ThreadLocalRandom.current().nextInt(100);
+        final List<String> buttons = u.buttons;
+
+        if (dice < tapShare && !buttons.isEmpty())
+            return callback(u, buttons.get(ThreadLocalRandom.current().nextInt(buttons.size())));
+
+        if (dice < uploadShare) {
+            final ObjectNode update = message(u, null);
+            final long n = ThreadLocalRandom.current().nextLong(1_000_000);
+            final ObjectNode doc = ((ObjectNode) update.get("message")).putObject("document");
+            doc.put("file_id", "BQACAgIAAxk" + n);
+            doc.put("file_unique_id", "AgAD" + n);
+            doc.put("file_name", "file_" + n + ".pdf");
+            return update;
+        }
+
+        return message(u, words[ThreadLocalRandom.current().nextInt(words.length)]);
+    }
+
+    private ObjectNode message(final SimUser u, final String text) {
+        final ObjectNode update = mapper.createObjectNode();
+        update.put("update_id", updateIds.getAndIncrement());
+
+        final ObjectNode msg = update.putObject("message");
+        msg.put("message_id", messageIds.getAndIncrement());
+        msg.put("date", System.currentTimeMillis() / 1000);
+        from(msg, u);
+        msg.putObject("chat").put("id", u.id).put("type", "private");
+
+        if (text != null)
+            msg.put("text", text);
+
+        return update;
+    }
+
+    private ObjectNode callback(final SimUser u, final String data) {
+        final ObjectNode update = mapper.createObjectNode();
+        final long id = updateIds.getAndIncrement();
+        update.put("update_id", id);
+
+        final ObjectNode cb = update.putObject("callback_query");
+        cb.put("id", "cb" + id);
+        cb.put("data", data);
+        from(cb, u);
+
+        return update;
+    }
+
+    private static void from(final ObjectNode parent, final SimUser u) {
+        final ObjectNode from = parent.putObject("from");
+        from.put("id", u.id);
+        from.put("first_name", "Load");
+        from.put("last_name", String.valueOf(u.id));
+        from.put("username", "load" + u.id);
+        from.put("language_code", "en");
+    }
+
+    private int post(final byte[] body) throws IOException {
+        final HttpURLConnection con = (HttpURLConnection) new URL(target).openConnection();
+        con.setRequestMethod("POST");
+        con.setDoOutput(true);
+        con.setConnectTimeout(5000);
+        con.setReadTimeout((int) timeoutMs);
+        con.setRequestProperty("Content-Type", "application/json");
+
+        try (final OutputStream os = con.getOutputStream()) {
+            os.write(body);
+        }
+
+        final int status = con.getResponseCode();
+
+        final InputStream is = status < 400 ? con.getInputStream() : con.getErrorStream();
+        if (is != null)
+            try (final InputStream in = is) {
+                TgStub.readAll(in);
+            }
+
+        return status;
+    }
+
+    private void report(final double seconds, final TgStub stub) {
+        final List<Long> sorted;
+        synchronized (latencies) {
+            sorted = new ArrayList<>(latencies);
+        }
+        Collections.sort(sorted);
+
+        System.out.println("-----");
+        System.out.printf("updates posted %d (%.1f/s), refused %d, failed %d%n", posted.sum(), posted.sum() / seconds, refused.sum(), failed.sum());
+        System.out.printf("rendered %d (%.1f/s), no render within %dms %d%n", rendered.sum(), rendered.sum() / seconds, timeoutMs, timedOut.sum());
+
+        if (!sorted.isEmpty())
+            System.out.printf("webhook -> render ms: p50 %.1f, p90 %.1f, p99 %.1f, max %.1f%n",
+                    pct(sorted, 50), pct(sorted, 90), pct(sorted, 99), sorted.get(sorted.size() - 1) / 1e6);
+
+        System.out.println("stub calls " + stub.calls() + ", injected errors " + stub.errors() + ", injected 429s " + stub.floods());
+    }
+
+    // a row of the comparison table
+    private String summary(final int userCount, final double seconds) {
+        final List<Long> sorted;
+        synchronized (latencies) {
+            sorted = new ArrayList<>(latencies);
+        }
+        Collections.sort(sorted);
+
+        return String.format("%8d | %10.1f | %10.1f | %8.1f | %8.1f | %8d | %8d", userCount, posted.sum() / seconds, rendered.sum() / seconds,
+                sorted.isEmpty() ? 0 : pct(sorted, 50), sorted.isEmpty() ? 0 : pct(sorted, 99), refused.sum(), timedOut.sum());
+    }
+
+    private static double pct(final List<Long> sorted, final int p) {
+        return sorted.get(Math.min(sorted.size() - 1, (int) Math.ceil(sorted.size() * p / 100d) - 1)) / 1e6;
+    }
+
+    private static final class SimUser {
+        private final long id;
+        private volatile List<String> buttons = Collections.emptyList();
+        private volatile CompletableFuture<Long> pending;
+
+        private SimUser(final long id) {
+            this.id = id;
+        }
+    }
+}
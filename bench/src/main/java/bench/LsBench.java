@@ -0,0 +1,190 @@
+package bench;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Latency of listing a directory against the size of the user's tree, for both storages: a table with the fs and paths
+ * views per user, where the path comes from the recursive paths view, and the entries table, where it is a column. The
+ * statements are the ones the mappers make for lsDirContent; the listed directory is the deepest one.
+ * <p>
+ * Needs a postgres the settings point to, everything is made in the tfs_bench schema, dropped first. Settings are
+ * system properties: db.url, db.user, db.password, sizes (entries in the tree, comma separated), reps.
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+public final class LsBench {
+    private static final String tablesLs = "select f.*, fp.path\n" +
+            "from fs_user_b f\n" +
+            "         left join fs_paths_b fp on (f.id = fp.id)\n" +
+            "where f.parent_id = ?\n" +
+            "  and f.type != 'LABEL'\n" +
+            "order by case when (f.type = 'DIR') then 0 else 1 end, f.name\n" +
+            "offset 0 limit 10";
+
+    private static final String entriesLs = "with mounted as (\n" +
+            "    select e.id, m.holder_id as parent_id, e.name, e.type, e.ref_id, e.options, e.owner, s.rw, h.path || '/' || e.name as path\n" +
+            "    from share_mounts m\n" +
+            "             join shares s on s.id = m.share_id\n" +
+            "             join entries h on h.owner = m.consumer and h.id = m.holder_id\n" +
+            "             join entries e on e.owner = m.owner and e.id = m.entry_id\n" +
+            "    where m.consumer = ?\n" +
+            "    union all\n" +
+            "    select e.id, e.parent_id, e.name, e.type, e.ref_id, e.options, e.owner, s.rw, h.path || substr(e.path, length(r.path) - length(r.name))\n" +
+            "    from share_mounts m\n" +
+            "             join shares s on s.id = m.share_id\n" +
+            "             join entries h on h.owner = m.consumer and h.id = m.holder_id\n" +
+            "             join entries r on r.owner = m.owner and r.id = m.entry_id\n" +
+            "             join entry_tree t on t.owner = m.owner and t.ancestor = m.entry_id and t.depth > 0\n" +
+            "             join entries e on e.owner = t.owner and e.id = t.descendant\n" +
+            "    where m.consumer = ?\n" +
+            "),\n" +
+            "fs as (\n" +
+            "    select id, parent_id, name, type, ref_id, options, owner, true as rw, path from entries where owner = ?\n" +
+            "    union all\n" +
+            "    select id, parent_id, name, type, ref_id, options, owner, rw, path from mounted\n" +
+            ")\n" +
+            "select f.*\n" +
+            "from fs f\n" +
+            "where f.parent_id = ?\n" +
+            "  and f.type != 'LABEL'\n" +
+            "order by case when (f.type = 'DIR') then 0 else 1 end, f.name\n" +
+            "offset 0 limit 10";
+
+    // a 10-ary tree of the given size, ids are md5 of the entry's number
+    private static final String tree = "select md5(i::text)::uuid,\n" +
+            "       case when i = 0 then null else md5(((i - 1) / 10)::text)::uuid end,\n" +
+            "       case when i = 0 then '' else 'e' || i end,\n" +
+            "       case when i * 10 + 1 < %1$d then 'DIR' else 'FILE' end\n" +
+            "from generate_series(0, %1$d - 1) i";
+
+    public static void main(final String[] args) throws Exception {
+        final int reps = Integer.getInteger("reps", 100);
+        final int[] sizes = Arrays.stream(System.getProperty("sizes", "1000,10000,100000,1000000").split(",")).mapToInt(Integer::parseInt).toArray();
+
+        try (final Connection c = DriverManager.getConnection(System.getProperty("db.url", "jdbc:postgresql://localhost/tfs"), System.getProperty("db.user", "tfs_user"),
+                System.getProperty("db.password", ""))) {
+            c.setAutoCommit(true);
+
+            System.out.println("ls of the deepest directory, " + reps + " runs, ms");
+            System.out.printf("%10s | %-32s | %-32s%n", "entries", "tables + paths view", "entries.path");
+
+            for (final int size : sizes) {
+                prepare(c, size);
+
+                // the parent of the last entry
+                final UUID dir = uuid(c, "select md5(((" + size + " - 2) / 10)::text)::uuid");
+
+                final List<Long> tables = run(c, tablesLs, reps, ps -> ps.setObject(1, dir));
+                final List<Long> entries = run(c, entriesLs, reps, ps -> {
+                    ps.setLong(1, 1);
+                    ps.setLong(2, 1);
+                    ps.setLong(3, 1);
+                    ps.setObject(4, dir);
+                });
+
+                System.out.printf("%10d | %-32s | %-32s%n", size, report(tables), report(entries));
+            }
+
+            exec(c, "drop schema tfs_bench cascade");
+        }
+    }
+
+    private static void prepare(final Connection c, final int size) throws SQLException {
+        exec(c, "drop schema if exists tfs_bench cascade");
+        exec(c, "create schema tfs_bench");
+        exec(c, "set search_path to tfs_bench");
+
+        // per user tables, as the app creates them
+        exec(c, "create table fs_data_b (id uuid not null primary key, parent_id uuid, name text, type text not null, ref_id text, options int default 0)");
+        exec(c, "create index fs_data_b_names on fs_data_b (name)");
+        exec(c, "insert into fs_data_b (id, parent_id, name, type) " + String.format(tree, size));
+        exec(c, "create view fs_user_b as (select id, parent_id, name, type, ref_id, options, cast(1 as bigint) as \"owner\", true as \"rw\" from fs_data_b)");
+        exec(c, "create view fs_paths_b (id, parent_id, owner, path) as (with recursive tree as (" +
+                "select id, name, parent_id, owner, array [name] as fpath from fs_user_b where parent_id is null " +
+                "union all " +
+                "select si.id, si.name, si.parent_id, si.owner, sp.fpath || si.name from fs_user_b as si join tree as sp on (si.parent_id = sp.id)) " +
+                "select id, parent_id, owner, array_to_string(fpath, '/') from tree)");
+
+        // entries table, as SETUP.md has it
+        exec(c, "create table shares (id text not null primary key, name text, owner bigint, shared_to bigint, rw boolean, from_name text, entry_id uuid)");
+        exec(c, "create table share_mounts (consumer bigint not null, share_id text not null, owner bigint not null, entry_id uuid not null, holder_id uuid not null, " +
+                "primary key (consumer, share_id))");
+        exec(c, "create table entries (owner bigint not null, id uuid not null, parent_id uuid, name text, type text not null, ref_id text, options int default 0, " +
+                "path text, primary key (owner, id)) partition by hash (owner)");
+        for (int i = 0; i < 16; i++)
+            exec(c, "create table entries_" + i + " partition of entries for values with (modulus 16, remainder " + i + ")");
+        exec(c, "create index entries_parent on entries (owner, parent_id)");
+        exec(c, "create index entries_names on entries (owner, name)");
+        exec(c, "create table entry_tree (owner bigint not null, ancestor uuid not null, descendant uuid not null, depth int not null, " +
+                "primary key (owner, ancestor, descendant)) partition by hash (owner)");
+        for (int i = 0; i < 16; i++)
+            exec(c, "create table entry_tree_" + i + " partition of entry_tree for values with (modulus 16, remainder " + i + ")");
+        exec(c, "create index entry_tree_descendant on entry_tree (owner, descendant)");
+        exec(c, "insert into entries (owner, id, parent_id, name, type) select 1, t.* from (" + String.format(tree, size) + ") t");
+        exec(c, "with recursive tree as (select id, name as path from entries where owner = 1 and parent_id is null " +
+                "union all select e.id, t.path || '/' || e.name from entries e join tree t on e.owner = 1 and e.parent_id = t.id) " +
+                "update entries e set path = t.path from tree t where e.owner = 1 and e.id = t.id");
+
+        exec(c, "analyze");
+    }
+
+    private static List<Long> run(final Connection c, final String sql, final int reps, final Binder binder) throws SQLException {
+        final List<Long> times = new ArrayList<>(reps);
+
+        try (final PreparedStatement ps = c.prepareStatement(sql)) {
+            binder.bind(ps);
+
+            for (int i = -Math.min(10, reps); i < reps; i++) {
+                final long started = System.nanoTime();
+
+                try (final ResultSet rs = ps.executeQuery()) {
+                    while (rs.next())
+                        rs.getString("path");
+                }
+
+                if (i >= 0)
+                    times.add(System.nanoTime() - started);
+            }
+        }
+
+        Collections.sort(times);
+        return times;
+    }
+
+    private static String report(final List<Long> sorted) {
+        return String.format("p50 %.2f, p99 %.2f, max %.2f", pct(sorted, 50), pct(sorted, 99), sorted.get(sorted.size() - 1) / 1e6);
+    }
+
+    private static double pct(final List<Long> sorted, final int p) {
+        return sorted.get(Math.min(sorted.size() - 1, (int) Math.ceil(sorted.size() * p / 100d) - 1)) / 1e6;
+    }
+
+    private static UUID uuid(final Connection c, final String sql) throws SQLException {
+        try (final Statement st = c.createStatement(); final ResultSet rs = st.executeQuery(sql)) {
+            rs.next();
+            return (UUID) rs.getObject(1);
+        }
+    }
+
+    private static void exec(final Connection c, final String sql) throws SQLException {
+        try (final Statement st = c.createStatement()) {
+            st.execute(sql);
+        }
+    }
+
+    private interface Binder {
+        void bind(PreparedStatement ps) throws SQLException;
+    }
+}
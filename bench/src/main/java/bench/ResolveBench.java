@@ -0,0 +1,170 @@
+package bench;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Latency of resolving a user, the old flow against the one statement of resolveUser, for users already stored and for
+ * new ones. The old flow is isUserMissed, insertUser for a new user, then getUser joining the user's fs_data table for
+ * the root; the new one is resolveUser, plus setRootId for a new user. Creating a new user's tables is the same in both
+ * and is left out: the tables are made beforehand.
+ * <p>
+ * Needs a postgres the settings point to, everything is made in the tfs_bench schema, dropped first. Settings are
+ * system properties: db.url, db.user, db.password, users (stored users, each with its table), reps.
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+public final class ResolveBench {
+    private static final String isUserMissed = "select not exists(select 1 from users where id = ?)";
+    private static final String insertUser = "insert into users(id) values (?)";
+    private static final String getUser = "select u.*, fs.id as root_id from users u left join fs_data_%d fs on fs.parent_id is null where u.id = ?";
+
+    private static final String resolveUser = "with created as (insert into users (id) values (?) on conflict (id) do nothing returning *) " +
+            "select c.*, true as created from created c union all select u.*, false as created from users u where u.id = ?";
+    private static final String setRootId = "update users set root_id = ? where id = ?";
+
+    public static void main(final String[] args) throws Exception {
+        final int users = Integer.getInteger("users", 1000);
+        final int reps = Math.min(users, Integer.getInteger("reps", 1000));
+
+        try (final Connection c = DriverManager.getConnection(System.getProperty("db.url", "jdbc:postgresql://localhost/tfs"), System.getProperty("db.user", "tfs_user"),
+                System.getProperty("db.password", ""))) {
+            c.setAutoCommit(true);
+            prepare(c, users, reps);
+
+            System.out.println("user resolution, " + users + " stored users, " + reps + " runs, ms");
+            System.out.printf("%10s | %-32s | %-32s%n", "user", "old flow", "resolveUser");
+
+            // stored users are taken in a scattered order, new ones are ids above them, each resolved once per flow
+            final List<Long> stored = new ArrayList<>(users);
+            for (long id = 1; id <= users; id++)
+                stored.add(id);
+            Collections.shuffle(stored);
+
+            System.out.printf("%10s | %-32s | %-32s%n", "stored", report(old(c, stored.subList(0, reps))), report(single(c, stored.subList(0, reps))));
+
+            final List<Long> fresh = new ArrayList<>(reps * 2);
+            for (long id = users + 1; id <= users + reps * 2L; id++)
+                fresh.add(id);
+
+            System.out.printf("%10s | %-32s | %-32s%n", "new", report(old(c, fresh.subList(0, reps))), report(single(c, fresh.subList(reps, reps * 2))));
+
+            exec(c, "drop schema tfs_bench cascade");
+        }
+    }
+
+    private static void prepare(final Connection c, final int users, final int fresh) throws SQLException {
+        exec(c, "drop schema if exists tfs_bench cascade");
+        exec(c, "create schema tfs_bench");
+        exec(c, "set search_path to tfs_bench");
+
+        // as SETUP.md has it
+        exec(c, "create table users (id bigint not null primary key, last_message_id bigint default 0 not null, last_ref_fp bigint default 0 not null, " +
+                "last_text_fp bigint default 0 not null, last_kbd_fp bigint default 0 not null, data text, root_id uuid, storage text unique, " +
+                "entries boolean default false not null)");
+        exec(c, "insert into users (id, data, root_id) select i, '{}', md5(i::text)::uuid from generate_series(1, " + users + ") i");
+
+        // old getUser joins the user's table: a root with a hundred entries under it, as the app creates them
+        for (long id = 1; id <= users + fresh * 2L; id++) {
+            exec(c, "create table fs_data_" + id + " (id uuid not null primary key, parent_id uuid, name text, type text not null, ref_id text, options int default 0)");
+            exec(c, "create index fs_data_" + id + "_names on fs_data_" + id + " (name)");
+            exec(c, "insert into fs_data_" + id + " (id, parent_id, name, type) select md5(" + id + "::text)::uuid, null, '', 'DIR' union all " +
+                    "select md5(" + id + " || '-' || i)::uuid, md5(" + id + "::text)::uuid, 'e' || i, 'FILE' from generate_series(1, 100) i");
+        }
+
+        exec(c, "analyze");
+    }
+
+    private static List<Long> old(final Connection c, final List<Long> ids) throws SQLException {
+        final List<Long> times = new ArrayList<>(ids.size());
+
+        try (final PreparedStatement missed = c.prepareStatement(isUserMissed); final PreparedStatement insert = c.prepareStatement(insertUser)) {
+            for (final Long id : ids) {
+                final long started = System.nanoTime();
+
+                missed.setLong(1, id);
+                final boolean isNew;
+                try (final ResultSet rs = missed.executeQuery()) {
+                    rs.next();
+                    isNew = rs.getBoolean(1);
+                }
+
+                if (isNew) {
+                    insert.setLong(1, id);
+                    insert.executeUpdate();
+                }
+
+                // the table differs per user, so does the statement
+                try (final PreparedStatement get = c.prepareStatement(String.format(getUser, id))) {
+                    get.setLong(1, id);
+                    try (final ResultSet rs = get.executeQuery()) {
+                        rs.next();
+                        rs.getObject("root_id");
+                    }
+                }
+
+                times.add(System.nanoTime() - started);
+            }
+        }
+
+        Collections.sort(times);
+        return times;
+    }
+
+    private static List<Long> single(final Connection c, final List<Long> ids) throws SQLException {
+        final List<Long> times = new ArrayList<>(ids.size());
+
+        try (final PreparedStatement resolve = c.prepareStatement(resolveUser); final PreparedStatement root = c.prepareStatement(setRootId)) {
+            for (final Long id : ids) {
+                final long started = System.nanoTime();
+
+                resolve.setLong(1, id);
+                resolve.setLong(2, id);
+                final Object rootId;
+                try (final ResultSet rs = resolve.executeQuery()) {
+                    rs.next();
+                    rootId = rs.getObject("root_id");
+                }
+
+                if (rootId == null) {
+                    root.setObject(1, uuid(id));
+                    root.setLong(2, id);
+                    root.executeUpdate();
+                }
+
+                times.add(System.nanoTime() - started);
+            }
+        }
+
+        Collections.sort(times);
+        return times;
+    }
+
+    private static UUID uuid(final long id) {
+        return UUID.nameUUIDFromBytes(Long.toString(id).getBytes());
+    }
+
+    private static String report(final List<Long> sorted) {
+        return String.format("p50 %.2f, p99 %.2f, max %.2f", pct(sorted, 50), pct(sorted, 99), sorted.get(sorted.size() - 1) / 1e6);
+    }
+
+    private static double pct(final List<Long> sorted, final int p) {
+        return sorted.get(Math.min(sorted.size() - 1, (int) Math.ceil(sorted.size() * p / 100d) - 1)) / 1e6;
+    }
+
+    private static void exec(final Connection c, final String sql) throws SQLException {
+        try (final Statement st = c.createStatement()) {
+            st.execute(sql);
+        }
+    }
+}
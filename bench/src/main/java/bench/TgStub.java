@@ -0,0 +1,179 @@
+package bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local stand-in for the telegram bot api: answers the methods the bot calls, after a configurable latency and with
+ * injected errors and 429 flood replies. Point service.bot.api_url to http://host:port/bot/ to use it.
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+public final class TgStub {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Sees every call answered with ok.
+     */
+    public interface Listener {
+        void onCall(String method, long chatId, JsonNode body);
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final long latencyMs, jitterMs;
+    private final double errorRate, floodRate;
+    private final Listener listener;
+
+    private final AtomicLong messageIds = new AtomicLong(1000);
+    private final Map<String, LongAdder> calls = new ConcurrentHashMap<>();
+    private final LongAdder errors = new LongAdder(), floods = new LongAdder();
+
+    public TgStub(final int port, final long latencyMs, final long jitterMs, final double errorRate, final double floodRate, final Listener listener) throws IOException {
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+        this.errorRate = errorRate;
+        this.floodRate = floodRate;
+        this.listener = listener;
+
+        server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public Map<String, Long> calls() {
+        final Map<String, Long> map = new TreeMap<>();
+        calls.forEach((k, v) -> map.put(k, v.sum()));
+        return map;
+    }
+
+    public long errors() {
+        return errors.sum();
+    }
+
+    public long floods() {
+        return floods.sum();
+    }
+
+    // counters start over, for the next round of a comparison
+    public void reset() {
+        calls.clear();
+        errors.reset();
+        floods.reset();
+    }
+
+    private void handle(final HttpExchange ex) throws IOException {
+        final String path = ex.getRequestURI().getPath();
+        final String method = path.substring(path.lastIndexOf('/') + 1);
+        final byte[] payload = readAll(ex.getRequestBody());
+        final JsonNode body = payload.length == 0 ? mapper.createObjectNode() : mapper.readTree(payload);
+
+        calls.computeIfAbsent(method, k -> new LongAdder()).increment();
+
+        final long delay = latencyMs + (jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0);
+        if (delay > 0)
+            try {
+                Thread.sleep(delay);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+        final double dice = ThreadLocalRandom.current().nextDouble();
+
+        if (dice < floodRate) {
+            floods.increment();
+            final ObjectNode reply = fail(429, "Too Many Requests: retry after 1");
+            reply.putObject("parameters").put("retry_after", 1);
+            respond(ex, 429, reply);
+            return;
+        }
+
+        if (dice < floodRate + errorRate) {
+            errors.increment();
+            respond(ex, 400, fail(400, "Bad Request: injected error"));
+            return;
+        }
+
+        final long chatId = body.path("chat_id").asLong();
+        final ObjectNode reply = mapper.createObjectNode();
+        reply.put("ok", true);
+
+        if (method.startsWith("send")) {
+            final ObjectNode msg = reply.putObject("result");
+            msg.put("message_id", messageIds.incrementAndGet());
+            msg.putObject("chat").put("id", chatId);
+        } else if (method.startsWith("editMessage"))
+            reply.putObject("result").put("message_id", body.path("message_id").asLong());
+        else if (method.equals("getUpdates"))
+            reply.putArray("result");
+        else if (method.startsWith("delete") || method.startsWith("answer") || method.startsWith("set"))
+            reply.put("result", true);
+        else {
+            respond(ex, 404, fail(404, "Not Found: method " + method));
+            return;
+        }
+
+        respond(ex, 200, reply);
+
+        if (listener != null)
+            listener.onCall(method, chatId, body);
+    }
+
+    private static ObjectNode fail(final int code, final String desc) {
+        final ObjectNode node = mapper.createObjectNode();
+        node.put("ok", false);
+        node.put("error_code", code);
+        node.put("description", desc);
+        return node;
+    }
+
+    private static void respond(final HttpExchange ex, final int status, final JsonNode reply) throws IOException {
+        final byte[] bytes = mapper.writeValueAsBytes(reply);
+
+        ex.getResponseHeaders().set("Content-Type", "application/json");
+        ex.sendResponseHeaders(status, bytes.length);
+
+        try (final OutputStream os = ex.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    static byte[] readAll(final InputStream is) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream(1024);
+        final byte[] buf = new byte[4096];
+        int n;
+
+        while ((n = is.read(buf)) > 0)
+            bos.write(buf, 0, n);
+
+        return bos.toByteArray();
+    }
+}
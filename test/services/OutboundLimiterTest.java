@@ -0,0 +1,105 @@
+package services;
+
+import com.typesafe.config.ConfigFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.inject.ApplicationLifecycle;
+import play.libs.ws.WSResponse;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * Order of a chat's calls: the chat's bucket lets one call out at once, the rest wait in its queue.
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+public class OutboundLimiterTest {
+    private final List<Callable<? extends CompletionStage<?>>> stopHooks = new ArrayList<>(1);
+    private final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+
+    private OutboundLimiter limiter;
+
+    @Before
+    public void setUp() {
+        final Map<String, Object> settings = new HashMap<>();
+        settings.put("service.bot.limits.enabled", true);
+        settings.put("service.bot.limits.global.rate", 1000);
+        settings.put("service.bot.limits.global.burst", 1000);
+        settings.put("service.bot.limits.chat.rate", 20);
+        settings.put("service.bot.limits.chat.burst", 1);
+        settings.put("service.bot.limits.retries", 0);
+
+        limiter = new OutboundLimiter(ConfigFactory.parseMap(settings), new ApplicationLifecycle() {
+            @Override
+            public void addStopHook(final Callable<? extends CompletionStage<?>> hook) {
+                stopHooks.add(hook);
+            }
+
+            @Override
+            public play.api.inject.ApplicationLifecycle asScala() {
+                return null;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (final Callable<? extends CompletionStage<?>> hook : stopHooks)
+            hook.call();
+    }
+
+    @Test
+    public void editGoesAfterTheSendQueuedBeforeIt() {
+        final List<CompletionStage<WSResponse>> calls = Arrays.asList(
+                limiter.submit(1, call("sendMessage")), // takes the chat's token, the rest are queued behind it
+                limiter.submit(1, call("editMessageText")),
+                limiter.submit(1, call("sendMessage")),
+                limiter.submit(1, call("editMessageText")),
+                limiter.submit(1, call("deleteMessage")),
+                limiter.submit(1, call("editMessageReplyMarkup")));
+
+        calls.forEach(OutboundLimiterTest::await);
+
+        assertEquals(Arrays.asList("sendMessage", "editMessageText", "sendMessage", "editMessageText", "deleteMessage", "editMessageReplyMarkup"), sent);
+    }
+
+    @Test
+    public void editsOfOneMessageAllGoOut() {
+        final List<CompletionStage<WSResponse>> calls = Arrays.asList(
+                limiter.submit(1, call("sendMessage")),
+                limiter.submit(1, call("editMessageReplyMarkup")),
+                limiter.submit(1, call("editMessageText")));
+
+        calls.forEach(OutboundLimiterTest::await);
+
+        assertEquals(Arrays.asList("sendMessage", "editMessageReplyMarkup", "editMessageText"), sent);
+    }
+
+    // no telegram here: a call is recorded and fails, which completes its stage right away
+    private Supplier<CompletionStage<WSResponse>> call(final String method) {
+        return () -> {
+            sent.add(method);
+
+            final CompletableFuture<WSResponse> f = new CompletableFuture<>();
+            f.completeExceptionally(new IllegalStateException(method));
+            return f;
+        };
+    }
+
+    private static void await(final CompletionStage<WSResponse> call) {
+        try {
+            call.toCompletableFuture().get(5, TimeUnit.SECONDS);
+            fail("a stub call cannot succeed");
+        } catch (final ExecutionException ignore) {
+        } catch (final Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package services;
+
+import com.typesafe.config.ConfigFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.inject.ApplicationLifecycle;
+import play.libs.ws.WSClient;
+import play.libs.ws.WSResponse;
+import play.routing.RoutingDsl;
+import play.server.Server;
+import play.test.WSTestClient;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static play.mvc.Results.status;
+
+/**
+ * Breaker of a method against a local server answering with the status it is told to.
+ *
+ * @author Denis Danilin | denis@danilin.name
+ * 16.10.2026
+ * tfs ☭ sweat and blood
+ */
+public class TgTransportTest {
+    private static final byte[] body = "{}".getBytes();
+
+    private final AtomicInteger status = new AtomicInteger(200);
+    private final AtomicInteger served = new AtomicInteger(0);
+
+    private Server server;
+    private WSClient ws;
+    private TgTransport transport;
+
+    @Before
+    public void setUp() {
+        server = Server.forRouter(components -> RoutingDsl.fromComponents(components)
+                .POST("/bot/:method").routingTo((request, method) -> {
+                    served.incrementAndGet();
+                    return status(status.get(), "{\"ok\":true,\"result\":{\"message_id\":1}}");
+                })
+                .build());
+        ws = WSTestClient.newClient(server.httpPort());
+
+        final Map<String, Object> settings = new HashMap<>();
+        settings.put("service.bot.api_url", "http://localhost:" + server.httpPort() + "/bot/");
+        settings.put("service.bot.breaker.failures", 2);
+        settings.put("service.bot.breaker.open", "100ms");
+        settings.put("service.bot.breaker.max_open", "100ms");
+        settings.put("service.bot.retry.budget_ratio", 0.1);
+        settings.put("service.bot.retry.budget_max", 50);
+        settings.put("service.bot.retry.backoff", "200ms");
+
+        transport = new TgTransport(ConfigFactory.parseMap(settings), ws, new ApplicationLifecycle() {
+            @Override
+            public void addStopHook(final Callable<? extends CompletionStage<?>> hook) {
+            }
+
+            @Override
+            public play.api.inject.ApplicationLifecycle asScala() {
+                return null;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ws.close();
+        server.stop();
+    }
+
+    @Test
+    public void probesOnceThePauseIsOver() throws Exception {
+        status.set(500);
+        assertEquals(500, post().getStatus());
+        assertEquals(500, post().getStatus());
+
+        assertFalse(transport.available("sendMessage"));
+        try {
+            post();
+            fail("a call of an open circuit has to fail fast");
+        } catch (final CompletionException e) {
+            assertTrue(e.getCause() instanceof TgTransport.CircuitOpen);
+        }
+        assertEquals(2, served.get());
+
+        Thread.sleep(150);
+        status.set(200);
+
+        assertTrue(transport.available("sendMessage"));
+        assertEquals(200, post().getStatus());
+        assertEquals(3, served.get());
+
+        // the probe closed it
+        assertTrue(transport.available("sendMessage"));
+        assertEquals(200, post().getStatus());
+    }
+
+    @Test
+    public void failedProbeReopens() throws Exception {
+        status.set(500);
+        post();
+        post();
+
+        Thread.sleep(150);
+
+        assertTrue(transport.available("sendMessage"));
+        assertEquals(500, post().getStatus());
+        assertFalse(transport.available("sendMessage"));
+    }
+
+    private WSResponse post() {
+        return transport.post("sendMessage", body).toCompletableFuture().join();
+    }
+}